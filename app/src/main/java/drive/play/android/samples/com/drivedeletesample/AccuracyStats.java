@@ -0,0 +1,219 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Accuracy of a history of answered {@link Equation}s, overall and per {@link Operator}: the
+ * number of attempts and correct answers, the current streak of correct answers and the longest
+ * one. Counters are updated in constant time as each equation is added, so they never require
+ * reading the history again; {@link LocalHistoryStore} keeps them in a side file next to it.
+ *
+ * <p>The side file format starts with the magic bytes {@code "SMST"} and a version byte, followed
+ * by the four counters overall and then per operator, in ordinal order. Instances are not thread
+ * safe.
+ */
+final class AccuracyStats {
+  static final int VERSION = 1;
+
+  private static final byte[] MAGIC = {'S', 'M', 'S', 'T'};
+  private static final Operator[] OPERATORS = Operator.values();
+
+  /**
+   * Counters of a set of attempts.
+   */
+  static final class Counters {
+    private int mAttempts;
+    private int mCorrect;
+    private int mStreak;
+    private int mBestStreak;
+
+    int getAttempts() {
+      return mAttempts;
+    }
+
+    int getCorrect() {
+      return mCorrect;
+    }
+
+    /**
+     * Returns the number of correct answers since the last wrong one.
+     */
+    int getStreak() {
+      return mStreak;
+    }
+
+    int getBestStreak() {
+      return mBestStreak;
+    }
+
+    /**
+     * Returns the fraction of correct answers, or 0 if there have been no attempts.
+     */
+    double getAccuracy() {
+      return mAttempts == 0 ? 0 : mCorrect / (double) mAttempts;
+    }
+
+    private void add(boolean correct) {
+      mAttempts++;
+      if (correct) {
+        mCorrect++;
+        mStreak++;
+        mBestStreak = Math.max(mBestStreak, mStreak);
+      } else {
+        mStreak = 0;
+      }
+    }
+
+    private void copyFrom(Counters other) {
+      mAttempts = other.mAttempts;
+      mCorrect = other.mCorrect;
+      mStreak = other.mStreak;
+      mBestStreak = other.mBestStreak;
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+      out.writeInt(mAttempts);
+      out.writeInt(mCorrect);
+      out.writeInt(mStreak);
+      out.writeInt(mBestStreak);
+    }
+
+    private void read(DataInputStream in) throws IOException {
+      mAttempts = in.readInt();
+      mCorrect = in.readInt();
+      mStreak = in.readInt();
+      mBestStreak = in.readInt();
+    }
+  }
+
+  private final Counters mOverall = new Counters();
+  private final Counters[] mByOperator = new Counters[OPERATORS.length];
+
+  AccuracyStats() {
+    for (int i = 0; i < mByOperator.length; i++) {
+      mByOperator[i] = new Counters();
+    }
+  }
+
+  /**
+   * Returns the statistics of {@code sums}, oldest first.
+   */
+  static AccuracyStats of(Iterable<Equation> sums) {
+    AccuracyStats stats = new AccuracyStats();
+    for (Equation sum : sums) {
+      stats.add(sum);
+    }
+    return stats;
+  }
+
+  /**
+   * Counts {@code sum} as the newest attempt.
+   */
+  void add(Equation sum) {
+    boolean correct = sum.isCorrect();
+    mOverall.add(correct);
+    mByOperator[sum.getOperator().ordinal()].add(correct);
+  }
+
+  Counters getOverall() {
+    return mOverall;
+  }
+
+  Counters get(Operator operator) {
+    return mByOperator[operator.ordinal()];
+  }
+
+  /**
+   * Returns an independent copy of these statistics.
+   */
+  AccuracyStats copy() {
+    AccuracyStats copy = new AccuracyStats();
+    copy.mOverall.copyFrom(mOverall);
+    for (int i = 0; i < mByOperator.length; i++) {
+      copy.mByOperator[i].copyFrom(mByOperator[i]);
+    }
+    return copy;
+  }
+
+  /**
+   * Writes these statistics to {@code out}, without closing it.
+   */
+  void write(OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    data.write(MAGIC);
+    data.writeByte(VERSION);
+    mOverall.write(data);
+    for (Counters counters : mByOperator) {
+      counters.write(data);
+    }
+    data.flush();
+  }
+
+  /**
+   * Reads statistics written by {@link #write}.
+   *
+   * @return the statistics, or null if {@code in} does not hold statistics of this version,
+   *     including if it is truncated.
+   */
+  static AccuracyStats read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    AccuracyStats stats = new AccuracyStats();
+    byte[] magic = new byte[MAGIC.length];
+    try {
+      data.readFully(magic);
+      if (!Arrays.equals(magic, MAGIC) || data.readUnsignedByte() != VERSION) {
+        return null;
+      }
+      stats.mOverall.read(data);
+      for (Counters counters : stats.mByOperator) {
+        counters.read(data);
+      }
+    } catch (EOFException e) {
+      return null;
+    }
+    return stats;
+  }
+
+  /**
+   * Returns a one-line summary overall, followed by a line with the correct answers and attempts
+   * per operator, e.g. {@code "12 of 15 correct (80%), streak 3, best 7\n+ 5/5  - 3/4 ..."}.
+   */
+  @Override
+  public String toString() {
+    StringBuilder out = new StringBuilder(String.format(Locale.US,
+        "%d of %d correct (%.0f%%), streak %d, best %d", mOverall.mCorrect, mOverall.mAttempts,
+        mOverall.getAccuracy() * 100, mOverall.mStreak, mOverall.mBestStreak));
+    out.append('\n');
+    for (int i = 0; i < OPERATORS.length; i++) {
+      if (i > 0) {
+        out.append("  ");
+      }
+      out.append(OPERATORS[i].symbol()).append(' ')
+          .append(mByOperator[i].mCorrect).append('/').append(mByOperator[i].mAttempts);
+    }
+    return out.toString();
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deletes many App Data files in one parallel wave: every delete is started at once on a bounded
+ * pool and the wave completes when all of them have, so a folder full of stale files costs about
+ * as long as {@code files / concurrency} round trips instead of one round trip per file.
+ */
+class AppDataCleaner {
+  /**
+   * Receives the progress of a wave. Called on the pool threads as deletes complete.
+   */
+  interface ProgressListener {
+    void onProgress(int completed, int total);
+  }
+
+  /**
+   * Outcome of a wave.
+   */
+  static class Report {
+    /** Number of files the wave tried to delete. */
+    final int total;
+    /** Ids of the files that could not be deleted. */
+    final List<String> failedIds;
+    /** First failure, or null if every delete succeeded. */
+    final IOException failure;
+    final long elapsedNanos;
+
+    Report(int total, List<String> failedIds, IOException failure, long elapsedNanos) {
+      this.total = total;
+      this.failedIds = failedIds;
+      this.failure = failure;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    int getDeletedCount() {
+      return total - failedIds.size();
+    }
+
+    @Override
+    public String toString() {
+      return "Deleted " + getDeletedCount() + " of " + total + " files in "
+          + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms";
+    }
+  }
+
+  private final AppDataStore mStore;
+  private final int mConcurrency;
+
+  AppDataCleaner(AppDataStore store, int concurrency) {
+    mStore = store;
+    mConcurrency = concurrency;
+  }
+
+  /**
+   * Deletes the files {@code fileIds}, at most {@code concurrency} at a time, and waits for all of
+   * them. A failed delete does not stop the others; it is reported in the returned {@link Report}.
+   *
+   * @param listener notified after each delete, or null.
+   */
+  Report deleteAll(List<String> fileIds, final ProgressListener listener) throws IOException {
+    long start = System.nanoTime();
+    final int total = fileIds.size();
+    if (total == 0) {
+      return new Report(0, Collections.<String>emptyList(), null, System.nanoTime() - start);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(mConcurrency, total));
+    try {
+      final AtomicInteger completed = new AtomicInteger();
+      List<Future<Void>> deletes = new ArrayList<>(total);
+      for (final String fileId : fileIds) {
+        deletes.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            try {
+              mStore.delete(fileId);
+            } finally {
+              if (listener != null) {
+                listener.onProgress(completed.incrementAndGet(), total);
+              }
+            }
+            return null;
+          }
+        }));
+      }
+
+      List<String> failedIds = new ArrayList<>();
+      IOException failure = null;
+      for (int i = 0; i < total; i++) {
+        try {
+          deletes.get(i).get();
+        } catch (ExecutionException e) {
+          failedIds.add(fileIds.get(i));
+          if (failure == null) {
+            failure = e.getCause() instanceof IOException
+                ? (IOException) e.getCause() : new IOException(e.getCause());
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while deleting files.", e);
+        }
+      }
+      return new Report(total, failedIds, failure, System.nanoTime() - start);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency, throughput and error counters of App Data operations, collected by
+ * {@link MeteredAppDataStore}. Safe to update and read from any thread.
+ */
+class AppDataMetrics {
+  /**
+   * Counters of one kind of operation. Latencies are kept in a histogram of power-of-two buckets
+   * of microseconds, so percentiles are accurate to within a factor of two whatever the number of
+   * calls.
+   */
+  static final class Operation {
+    private static final int BUCKETS = 32;
+
+    private final String mName;
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mErrors = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+    /** Bucket {@code i} counts latencies of less than {@code 2^i} microseconds. */
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+
+    Operation(String name) {
+      mName = name;
+    }
+
+    /**
+     * Records the start of a call.
+     *
+     * @return the start time to pass to {@link #end}.
+     */
+    long begin() {
+      mInFlight.incrementAndGet();
+      return System.nanoTime();
+    }
+
+    /**
+     * Records the end of a call started when {@link #begin()} returned {@code startNanos}.
+     */
+    void end(long startNanos, boolean succeeded) {
+      long nanos = System.nanoTime() - startNanos;
+      mInFlight.decrementAndGet();
+      mCount.incrementAndGet();
+      if (!succeeded) {
+        mErrors.incrementAndGet();
+      }
+      mTotalNanos.addAndGet(nanos);
+      long max = mMaxNanos.get();
+      while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+        max = mMaxNanos.get();
+      }
+      long micros = nanos / 1000;
+      mBuckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+    }
+
+    String getName() {
+      return mName;
+    }
+
+    int getInFlight() {
+      return mInFlight.get();
+    }
+
+    long getCount() {
+      return mCount.get();
+    }
+
+    long getErrorCount() {
+      return mErrors.get();
+    }
+
+    /**
+     * Returns the fraction of completed calls that failed, or 0 if none have completed.
+     */
+    double getErrorRate() {
+      long count = getCount();
+      return count == 0 ? 0 : (double) getErrorCount() / count;
+    }
+
+    double getMeanMillis() {
+      long count = getCount();
+      return count == 0 ? 0 : mTotalNanos.get() / 1e6 / count;
+    }
+
+    double getMaxMillis() {
+      return mMaxNanos.get() / 1e6;
+    }
+
+    /**
+     * Returns an upper bound of the {@code percentile} (0 to 100) of the latencies in
+     * milliseconds, or 0 if no calls have completed.
+     */
+    double getPercentileMillis(double percentile) {
+      long[] buckets = new long[BUCKETS];
+      long count = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        buckets[i] = mBuckets.get(i);
+        count += buckets[i];
+      }
+      long rank = (long) Math.ceil(percentile / 100 * count);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += buckets[i];
+        if (seen >= rank && seen > 0) {
+          return Math.min((1L << i) / 1e3, getMaxMillis());
+        }
+      }
+      return 0;
+    }
+  }
+
+  private final Map<String, Operation> mOperations = new LinkedHashMap<>();
+  private final AtomicLong mBytesRead = new AtomicLong();
+  private final AtomicLong mBytesWritten = new AtomicLong();
+
+  /**
+   * Returns the counters of the operation {@code name}, creating them on first use.
+   */
+  Operation operation(String name) {
+    synchronized (mOperations) {
+      Operation operation = mOperations.get(name);
+      if (operation == null) {
+        operation = new Operation(name);
+        mOperations.put(name, operation);
+      }
+      return operation;
+    }
+  }
+
+  /**
+   * Returns the counters of all operations used so far, in order of first use.
+   */
+  List<Operation> getOperations() {
+    synchronized (mOperations) {
+      return new ArrayList<>(mOperations.values());
+    }
+  }
+
+  void addBytesRead(long bytes) {
+    mBytesRead.addAndGet(bytes);
+  }
+
+  void addBytesWritten(long bytes) {
+    mBytesWritten.addAndGet(bytes);
+  }
+
+  long getBytesRead() {
+    return mBytesRead.get();
+  }
+
+  long getBytesWritten() {
+    return mBytesWritten.get();
+  }
+
+  /**
+   * Prints a table of the counters, one line per operation, each line starting with
+   * {@code prefix}.
+   */
+  void dump(String prefix, PrintWriter writer) {
+    writer.println(String.format(Locale.US, "%s%-16s %7s %6s %8s %9s %9s %9s %9s", prefix,
+        "operation", "calls", "errors", "inflight", "mean ms", "p50 ms", "p99 ms", "max ms"));
+    for (Operation operation : getOperations()) {
+      writer.println(String.format(Locale.US, "%s%-16s %7d %5.1f%% %8d %9.1f %9.1f %9.1f %9.1f",
+          prefix, operation.getName(), operation.getCount(), operation.getErrorRate() * 100,
+          operation.getInFlight(), operation.getMeanMillis(), operation.getPercentileMillis(50),
+          operation.getPercentileMillis(99), operation.getMaxMillis()));
+    }
+    writer.println(prefix + "bytes read " + getBytesRead() + ", written " + getBytesWritten());
+  }
+
+  @Override
+  public String toString() {
+    StringWriter out = new StringWriter();
+    PrintWriter writer = new PrintWriter(out);
+    dump("", writer);
+    writer.flush();
+    return out.toString();
+  }
+}
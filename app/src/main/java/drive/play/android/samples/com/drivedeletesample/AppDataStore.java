@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * The App Data operations the sample uses, as blocking calls that do not depend on Android.
+ * {@link DriveAppDataStore} implements them with the Drive Android API; other implementations
+ * allow the sync logic in {@link AppDataSync} to run on a plain JVM.
+ *
+ * <p>Methods block until the operation has completed, so they must not be called on the main
+ * thread. Files are identified by strings, e.g. encoded {@code DriveId}s.
+ */
+interface AppDataStore {
+  /**
+   * Metadata of a file in the App Data folder.
+   */
+  final class FileInfo {
+    final String id;
+    final String title;
+    /** Modification time in milliseconds since the epoch. */
+    final long modified;
+    /** MD5 checksum of the contents, or null if not known. */
+    final String md5;
+    final long size;
+
+    FileInfo(String id, String title, long modified, String md5, long size) {
+      this.id = id;
+      this.title = title;
+      this.modified = modified;
+      this.md5 = md5;
+      this.size = size;
+    }
+
+    /**
+     * Returns a string that changes whenever the contents of the file change.
+     */
+    String getRevision() {
+      return modified + "/" + md5;
+    }
+  }
+
+  /**
+   * Contents of a file opened with {@link #openFile} or created with {@link #createContents()}.
+   * They must be passed to {@link #commitContents}, {@link #createFile} or
+   * {@link #discardContents} once done with.
+   */
+  interface Contents {
+    /**
+     * Returns the size of the contents in bytes.
+     */
+    long size() throws IOException;
+
+    /**
+     * Reads bytes starting at {@code position} into {@code dst}, like
+     * {@link java.nio.channels.FileChannel#read(ByteBuffer, long)}.
+     */
+    int read(ByteBuffer dst, long position) throws IOException;
+
+    /**
+     * Writes all remaining bytes of {@code src} starting at {@code position}.
+     */
+    void write(ByteBuffer src, long position) throws IOException;
+
+    /**
+     * Truncates the contents to {@code size} bytes.
+     */
+    void truncate(long size) throws IOException;
+
+    /**
+     * Returns a stream reading the contents from the start. Only for read-only contents.
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * Returns a stream writing the contents from the start. Only for contents created with
+     * {@link #createContents()}.
+     */
+    OutputStream getOutputStream() throws IOException;
+  }
+
+  /**
+   * Returns the files in the App Data folder.
+   */
+  List<FileInfo> listFiles() throws IOException;
+
+  /**
+   * Returns whether {@code fileId} and {@code otherFileId} identify the same file. Ids of the same
+   * file are not necessarily equal strings.
+   */
+  boolean isSameFile(String fileId, String otherFileId);
+
+  /**
+   * Returns new, empty contents to be written and passed to {@link #createFile}.
+   */
+  Contents createContents() throws IOException;
+
+  /**
+   * Creates a file in the App Data folder holding {@code contents}.
+   *
+   * @return the id of the new file.
+   */
+  String createFile(String title, String mimeType, Contents contents) throws IOException;
+
+  /**
+   * Opens the contents of the file {@code fileId}, for reading and writing if {@code writable}.
+   */
+  Contents openFile(String fileId, boolean writable) throws IOException;
+
+  /**
+   * Saves changes made to {@code contents} to their file.
+   */
+  void commitContents(Contents contents) throws IOException;
+
+  /**
+   * Closes {@code contents} without saving any changes.
+   */
+  void discardContents(Contents contents);
+
+  /**
+   * Permanently deletes the file {@code fileId}.
+   */
+  void delete(String fileId) throws IOException;
+}
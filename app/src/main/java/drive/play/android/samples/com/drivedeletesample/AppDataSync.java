@@ -0,0 +1,942 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the history in App Data, held by an {@link AppDataStore}, in sync with the on-device
+ * history in a {@link LocalHistoryStore}.
+ *
+ * <p>In App Data, every device appends the sums answered on it to its own log, so devices signed
+ * in to the same account never overwrite each other's sums and never have to retry a conflicting
+ * write. A log is split into segment files of bounded size listed by a {@link SegmentManifest},
+ * whose id is the file id kept in the {@link SyncState}. New sums are appended to the tail segment
+ * only. Loads merge all logs into one history, in the order defined by {@link LogMirror}, and
+ * download only the segments the device does not have yet, so both cost the same regardless of
+ * the length of the history. A device that has none of a log yet downloads only its newest
+ * segments, and older ones as they are needed with {@link #loadOlderSums()}, so its first load
+ * costs the same too. The history shared by all devices before each kept its own log, as a
+ * single file or as segments, is still loaded as a log that is no longer written to.
+ *
+ * <p>A load does not wait for one round trip before starting the next when it does not have to:
+ * the manifests of the logs the device has copied are read while the App Folder is listed, and
+ * the segments are downloaded in parallel.
+ *
+ * <p>Except for {@link #reset()}, methods block on the store, so they must be called on a
+ * background thread, and calls must not overlap; the app makes them on the {@link SubmitBatcher}
+ * thread.
+ */
+class AppDataSync {
+  /** Default maximum number of sums per segment, about 8 KB. */
+  static final int SEGMENT_CAPACITY = 1024;
+
+  /** Maximum number of files deleted at the same time. */
+  private static final int DELETE_CONCURRENCY = 8;
+
+  /**
+   * Time, in milliseconds, by which a segment no manifest lists must be older than the newest file
+   * in the App Folder to be deleted as left behind by a failed write. Younger ones may belong to a
+   * write in flight on another device that has not committed its manifest yet.
+   */
+  static final long ORPHAN_MIN_AGE_MS = TimeUnit.HOURS.toMillis(1);
+
+  /** Default minimum number of the newest sums of each log read by the first load of it. */
+  static final int FIRST_LOAD_SUMS = 100;
+
+  /** Maximum number of files read at the same time by a load. */
+  private static final int LOAD_CONCURRENCY = 4;
+
+  private static final String MANIFEST_TITLE = "Equation Manifest";
+  private static final String SEGMENT_TITLE = "Equation Segment";
+  /** Title of the single App Data file written before histories were segmented. */
+  private static final String LEGACY_TITLE = "Equation File";
+  private static final String MIME_TYPE = "application/octet-stream";
+
+  /**
+   * A manifest with the revision it was read at, or null if not known.
+   */
+  private static final class CachedManifest {
+    final String revision;
+    final SegmentManifest manifest;
+
+    CachedManifest(String revision, SegmentManifest manifest) {
+      this.revision = revision;
+      this.manifest = manifest;
+    }
+  }
+
+  /**
+   * A log listed in the App Folder, with its manifest, or null for a legacy single file.
+   */
+  private static final class ListedLog {
+    final String id;
+    final String revision;
+    final SegmentManifest manifest;
+
+    ListedLog(String id, String revision, SegmentManifest manifest) {
+      this.id = id;
+      this.revision = revision;
+      this.manifest = manifest;
+    }
+  }
+
+  /**
+   * A log being loaded: the reads of its segments from entry {@code first} on.
+   */
+  private static final class PendingLog {
+    final ListedLog log;
+    final int first;
+    final List<Future<byte[]>> reads = new ArrayList<>();
+
+    PendingLog(ListedLog log, int first) {
+      this.log = log;
+      this.first = first;
+    }
+  }
+
+  private final AppDataStore mStore;
+  private final LocalHistoryStore mLocalStore;
+  private final SyncState mState;
+  private final int mSegmentCapacity;
+  private final int mFirstLoadSums;
+  private final AppDataCleaner mCleaner;
+
+  /**
+   * Ids of the manifests and tails of the logs of other devices listed by the last load, or null
+   * if there has been none.
+   */
+  private volatile List<String> mWatchedFileIds;
+
+  /** Manifests read or written, by file id. Guarded by this. */
+  private final Map<String, CachedManifest> mManifests = new HashMap<>();
+
+  /**
+   * Buffer that segments and appended entries are serialized into, so that each is written to
+   * its contents in a single call. Sized for a full segment and reused by every write, which is
+   * why {@link #writeSums} calls must not overlap.
+   */
+  private ByteBuffer mWriteBuffer;
+
+  AppDataSync(AppDataStore store, LocalHistoryStore localStore, SyncState state) {
+    this(store, localStore, state, SEGMENT_CAPACITY);
+  }
+
+  AppDataSync(
+      AppDataStore store, LocalHistoryStore localStore, SyncState state, int segmentCapacity) {
+    this(store, localStore, state, segmentCapacity, FIRST_LOAD_SUMS);
+  }
+
+  AppDataSync(AppDataStore store, LocalHistoryStore localStore, SyncState state,
+      int segmentCapacity, int firstLoadSums) {
+    mStore = store;
+    mLocalStore = localStore;
+    mState = state;
+    mSegmentCapacity = segmentCapacity;
+    mFirstLoadSums = firstLoadSums;
+    mCleaner = new AppDataCleaner(store, DELETE_CONCURRENCY);
+    mWriteBuffer = ByteBuffer.allocate(EquationCodec.logSize(segmentCapacity));
+  }
+
+  /**
+   * Appends {@code sums}, oldest first, to the log of this device in App Data. If there is no log
+   * yet, it is created from {@code sums}. Callers record the written sums as synced with
+   * {@link LocalHistoryStore#addSynced}. Calls must not overlap; the app makes them all on the
+   * {@link SubmitBatcher} thread.
+   *
+   * @param version {@link LocalHistoryStore#getVersion()} when {@code sums} were taken from the
+   *     on-device history.
+   * @return false, without writing anything, if the on-device history has been cleared or
+   *     replaced since then, e.g. by a reset, so that its sums never start the next history.
+   */
+  boolean writeSums(List<Equation> sums, int version) throws IOException {
+    String fileId;
+    synchronized (this) {
+      // The on-device history is cleared before reset() forgets the App Data history.
+      if (mLocalStore.getVersion() != version) {
+        return false;
+      }
+      fileId = mState.getFileId();
+    }
+    SegmentManifest manifest = fileId == null ? null : readManifest(fileId, null);
+    if (manifest != null && mState.getDeviceId().equals(manifest.getDeviceId())) {
+      appendSums(fileId, manifest, sums);
+    } else {
+      // There is no log of this device yet. The file id may still be that of the history shared
+      // by earlier versions of the sample, which is only read from now on.
+      createLog(sums);
+    }
+    return true;
+  }
+
+  /**
+   * Loads the past sums from the logs in App Data and replaces the synced part of the on-device
+   * history with their merge.
+   *
+   * @return whether the on-device history was replaced; false if App Data has not changed since
+   *     the last sync, in which case nothing is downloaded, or if the history was reset while App
+   *     Data was read.
+   */
+  boolean loadPastSums() throws IOException {
+    int version = mLocalStore.getVersion();
+    ExecutorService executor = Executors.newFixedThreadPool(LOAD_CONCURRENCY);
+    try {
+      return loadPastSums(version, executor);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private boolean loadPastSums(int version, ExecutorService executor) throws IOException {
+    LogMirror.Summary mirror = mLocalStore.getLogSummary();
+    Set<String> forgottenIds = mState.getForgottenIds();
+    // On a cold start the manifests are not cached yet; read those of the logs copied before
+    // while the folder is listed rather than after. Whether they are still the listed revisions
+    // is checked below.
+    Map<String, Future<byte[]>> prefetches = new HashMap<>();
+    for (LogMirror.LogEnd log : mirror.logs) {
+      if (log.segmented && !isCached(log.id) && !isListed(forgottenIds, log.id)) {
+        prefetches.put(log.id, executor.submit(readBytes(log.id)));
+      }
+    }
+    List<AppDataStore.FileInfo> files = mStore.listFiles();
+    String fileId = mState.getFileId();
+    if (fileId != null && findFileById(files, fileId) == null) {
+      // The log of this device is gone, e.g. because the user deleted the hidden App Data of the
+      // sample in Drive; start a new one.
+      mState.setFileId(null);
+    }
+
+    List<AppDataStore.FileInfo> manifestInfos = new ArrayList<>();
+    AppDataStore.FileInfo legacyInfo = null;
+    for (AppDataStore.FileInfo file : files) {
+      if (isListed(forgottenIds, file.id)) {
+        continue;
+      }
+      if (MANIFEST_TITLE.equals(file.title)) {
+        manifestInfos.add(file);
+        Future<byte[]> prefetch = findPrefetch(prefetches, file.id);
+        if (prefetch != null) {
+          usePrefetchedManifest(file, prefetch);
+        }
+      } else if (LEGACY_TITLE.equals(file.title) && legacyInfo == null) {
+        legacyInfo = file;
+      }
+    }
+    List<Future<SegmentManifest>> manifestReads = new ArrayList<>();
+    for (AppDataStore.FileInfo manifestInfo : manifestInfos) {
+      manifestReads.add(executor.submit(readManifestTask(manifestInfo)));
+    }
+    List<ListedLog> listedLogs = new ArrayList<>();
+    for (int i = 0; i < manifestInfos.size(); i++) {
+      AppDataStore.FileInfo manifestInfo = manifestInfos.get(i);
+      SegmentManifest manifest = await(manifestReads.get(i));
+      if (manifest == null) {
+        throw new IOException("Corrupt manifest " + manifestInfo.id);
+      }
+      AppDataStore.FileInfo tailInfo = findFileById(files, manifest.getTailId());
+      if (tailInfo == null) {
+        throw new IOException("Missing segment " + manifest.getTailId());
+      }
+      listedLogs.add(new ListedLog(manifestInfo.id,
+          manifestInfo.getRevision() + "|" + tailInfo.getRevision(), manifest));
+    }
+    if (legacyInfo != null) {
+      listedLogs.add(new ListedLog(legacyInfo.id, legacyInfo.getRevision(), null));
+    }
+    List<String> watchedFileIds = new ArrayList<>();
+    for (ListedLog log : listedLogs) {
+      // The legacy single file is no longer written to.
+      if (log.manifest != null && !isOwnLog(log.id)) {
+        watchedFileIds.add(log.id);
+        watchedFileIds.add(findFileById(files, log.manifest.getTailId()).id);
+      }
+    }
+    mWatchedFileIds = Collections.unmodifiableList(watchedFileIds);
+    List<String> revisions = new ArrayList<>();
+    for (ListedLog log : listedLogs) {
+      revisions.add(log.id + "=" + log.revision);
+    }
+    Collections.sort(revisions);
+    String revision = revisions.toString();
+    if (revision.equals(mState.getSyncedRevision())) {
+      return false;
+    }
+
+    List<PendingLog> pendingLogs = new ArrayList<>();
+    for (ListedLog log : listedLogs) {
+      pendingLogs.add(startRead(log, findLog(mirror, log.id), executor));
+    }
+    List<LogMirror.Log> logs = new ArrayList<>();
+    for (PendingLog log : pendingLogs) {
+      logs.add(finishRead(log));
+    }
+    // Usually the logs of other devices only gained newer entries, which are added to the
+    // history without merging and rewriting all of it, or reading the copied entries.
+    LogMirror.Appended appended = mirror.mergeAppended(logs, mState.getFileId());
+    if (appended == null || !mLocalStore.appendSynced(appended, version)) {
+      LogMirror newMirror = mLocalStore.readLogMirror().extend(logs);
+      if (!mLocalStore.replaceSynced(
+          newMirror.getFirstIndex(), newMirror.merge(), newMirror, version)) {
+        return false;
+      }
+    }
+    mState.setSyncedRevision(revision);
+    return true;
+  }
+
+  /**
+   * Returns the ids of the files whose changes are those of other devices' logs: the manifests
+   * and tails of the logs listed by the last {@link #loadPastSums()}, or null if there has been
+   * none. Changes to other files only matter once a manifest lists them.
+   */
+  List<String> getWatchedFileIds() {
+    return mWatchedFileIds;
+  }
+
+  /**
+   * Copies the newest sealed segment of a log that the on-device history does not have yet to
+   * its oldest end, and adds the sums that are now merged before it. The history must have been
+   * loaded with {@link #loadPastSums()}.
+   *
+   * @return whether older sums were added; false if the device already has the whole history or
+   *     the history was reset or reloaded meanwhile.
+   */
+  boolean loadOlderSums() throws IOException {
+    int version = mLocalStore.getVersion();
+    if (mLocalStore.getLogSummary().getCutoffLog() == null) {
+      return false;
+    }
+    LogMirror mirror = mLocalStore.readLogMirror();
+    // Only the log whose oldest copied sum is the newest of all keeps older sums out of the
+    // history; the other logs have been copied that far already.
+    LogMirror.Log log = mirror.getCutoffLog();
+    if (log == null) {
+      return false;
+    }
+    // Sealed segments never change, so any revision of the manifest locates them.
+    SegmentManifest manifest = readManifest(log.id, null);
+    if (manifest == null) {
+      return false;
+    }
+    List<String> segmentIds = manifest.getSegmentIds();
+    int start = 0;
+    for (int i = 0; i < segmentIds.size() - 1; i++) {
+      int end = start + manifest.getCount(i);
+      if (end == log.first) {
+        long[] older = readEntries(segmentIds.get(i));
+        long[] entries = Arrays.copyOf(older, older.length + log.entries.length);
+        System.arraycopy(log.entries, 0, entries, older.length, log.entries.length);
+        LogMirror extended = mirror.with(new LogMirror.Log(
+            log.id, log.deviceId, log.segmented, log.revision, start, entries));
+        return mLocalStore.addOlder(
+            extended.getFirstIndex(), extended.mergeUntil(mirror), extended, version);
+      }
+      start = end;
+    }
+    throw new IOException("No segment ends at sum " + log.first + " of " + log.id);
+  }
+
+  /**
+   * Writes the sums of the history that are older than those on the device to {@code sink},
+   * oldest first, without storing them: only one segment per log is downloaded and held at a
+   * time. The history must have been loaded with {@link #loadPastSums()}.
+   */
+  void readOlderSums(HistoryTransfer.RecordSink sink) throws IOException {
+    mLocalStore.readLogMirror().mergeOlder(new LogMirror.SegmentReader() {
+      @Override
+      public long[] read(LogMirror.Log log, int start) throws IOException {
+        // Sealed segments never change, so any revision of the manifest locates them.
+        SegmentManifest manifest = readManifest(log.id, null);
+        if (manifest == null) {
+          throw new IOException("Corrupt manifest " + log.id);
+        }
+        List<String> segmentIds = manifest.getSegmentIds();
+        int end = 0;
+        for (int i = 0; i < segmentIds.size() - 1; i++) {
+          if (end == start) {
+            return readEntries(segmentIds.get(i));
+          }
+          end += manifest.getCount(i);
+        }
+        throw new IOException("No segment starts at sum " + start + " of " + log.id);
+      }
+    }, sink);
+  }
+
+  /**
+   * Forgets the log this device has written to App Data so far, so that it is ignored by loads
+   * and new sums start a new log, until {@link #deleteSums} deletes it. The logs of other devices
+   * are kept, and stay in the history. Does not block, so it may be called on any thread, e.g.
+   * right after the on-device history has been cleared.
+   */
+  synchronized void reset() {
+    forget(mState);
+  }
+
+  /**
+   * Forgets the log of this device like {@link #reset()}, before there is an instance to reset,
+   * e.g. before sign-in. Its id is kept in {@code state} as a tombstone, so the log stays
+   * forgotten across process restarts until {@link #deleteSums} of an instance with that state
+   * deletes it.
+   */
+  static void forget(SyncState state) {
+    String fileId = state.getFileId();
+    if (fileId != null) {
+      Set<String> forgottenIds = state.getForgottenIds();
+      forgottenIds.add(fileId);
+      state.setForgottenIds(forgottenIds);
+    }
+    state.setFileId(null);
+    state.setSyncedRevision(null);
+  }
+
+  /**
+   * Returns whether a log forgotten by a reset has yet to be deleted by {@link #deleteSums}.
+   */
+  boolean isDeletePending() {
+    return !mState.getForgottenIds().isEmpty();
+  }
+
+  /**
+   * Deletes the logs forgotten by resets, with their segments, in one parallel wave, together
+   * with segments left behind by failed writes, which no manifest lists. Only files this device
+   * forgot, and such orphans, are deleted; the logs of other devices and the log this device
+   * started after the last {@link #reset()} are kept. Once every forgotten file is gone, nothing
+   * is {@link #isDeletePending() pending deletion} any more; forgotten files that could not be
+   * deleted stay forgotten and are deleted by the next call.
+   *
+   * @param listener notified as files are deleted, or null.
+   */
+  AppDataCleaner.Report deleteSums(AppDataCleaner.ProgressListener listener) throws IOException {
+    Set<String> forgottenIds = mState.getForgottenIds();
+    List<AppDataStore.FileInfo> files = mStore.listFiles();
+    List<String> staleIds = new ArrayList<>();
+    for (AppDataStore.FileInfo file : files) {
+      if (!isListed(forgottenIds, file.id)) {
+        continue;
+      }
+      addIfUnlisted(staleIds, file.id);
+      SegmentManifest manifest = MANIFEST_TITLE.equals(file.title)
+          ? readManifest(file.id, file.getRevision()) : null;
+      if (manifest != null) {
+        for (String segmentId : manifest.getSegmentIds()) {
+          if (findFileById(files, segmentId) != null) {
+            addIfUnlisted(staleIds, segmentId);
+          }
+        }
+      }
+    }
+
+    List<String> orphanIds = findOrphans(files);
+    List<String> deletedIds = new ArrayList<>(staleIds);
+    for (String orphanId : orphanIds) {
+      addIfUnlisted(deletedIds, orphanId);
+    }
+
+    AppDataCleaner.Report report = mCleaner.deleteAll(deletedIds, listener);
+    synchronized (this) {
+      // Files forgotten by a reset meanwhile stay forgotten, as do those that were not deleted,
+      // including segments that are no longer listed once their manifest is gone. Orphans are
+      // found again by the next call.
+      Set<String> remainingIds = mState.getForgottenIds();
+      remainingIds.removeAll(forgottenIds);
+      for (String failedId : report.failedIds) {
+        if (isListed(staleIds, failedId)) {
+          remainingIds.add(failedId);
+        }
+      }
+      mState.setForgottenIds(remainingIds);
+    }
+    return report;
+  }
+
+  /**
+   * Returns the ids of the segments in {@code files} that no manifest lists and that are at least
+   * {@link #ORPHAN_MIN_AGE_MS} older than the newest file, or none if a manifest cannot be read.
+   * Times are compared with those of other files rather than with the clock of this device.
+   */
+  private List<String> findOrphans(List<AppDataStore.FileInfo> files) {
+    List<String> listedIds = new ArrayList<>();
+    long newest = 0;
+    for (AppDataStore.FileInfo file : files) {
+      newest = Math.max(newest, file.modified);
+      if (!MANIFEST_TITLE.equals(file.title)) {
+        continue;
+      }
+      SegmentManifest manifest;
+      try {
+        manifest = readManifest(file.id, file.getRevision());
+      } catch (IOException e) {
+        manifest = null;
+      }
+      if (manifest == null) {
+        // Its segments cannot be told from orphans.
+        return Collections.emptyList();
+      }
+      listedIds.addAll(manifest.getSegmentIds());
+    }
+    List<String> orphanIds = new ArrayList<>();
+    for (AppDataStore.FileInfo file : files) {
+      if (SEGMENT_TITLE.equals(file.title) && file.modified <= newest - ORPHAN_MIN_AGE_MS
+          && !isListed(listedIds, file.id)) {
+        orphanIds.add(file.id);
+      }
+    }
+    return orphanIds;
+  }
+
+  /**
+   * Creates the log of this device holding {@code sums}.
+   */
+  private void createLog(List<Equation> sums) throws IOException {
+    long[] entries = toEntries(sums, toSeconds(0));
+    List<String> segmentIds = new ArrayList<>();
+    int[] counts = createSegments(entries, segmentIds);
+    SegmentManifest manifest =
+        new SegmentManifest(mState.getDeviceId(), mSegmentCapacity, segmentIds, counts);
+
+    AppDataStore.Contents contents = mStore.createContents();
+    try (OutputStream out = new BufferedOutputStream(contents.getOutputStream())) {
+      manifest.write(out);
+    }
+    String manifestId = mStore.createFile(MANIFEST_TITLE, MIME_TYPE, contents);
+    mState.setFileId(manifestId);
+    cacheManifest(manifestId, null, manifest);
+  }
+
+  /**
+   * Appends {@code sums} to the log listed by {@code manifest}. If they fit, they are appended to
+   * the tail segment in a single commit. Otherwise the tail and {@code sums} are written to new
+   * segments, which only replace the tail once the manifest listing them has been committed, so a
+   * failed batch is never partially written.
+   */
+  private void appendSums(String manifestId, SegmentManifest manifest, List<Equation> sums)
+      throws IOException {
+    String tailId = manifest.getTailId();
+    AppDataStore.Contents tail = mStore.openFile(tailId, /* writable= */ true);
+    long[] entries;
+    try {
+      int tailCount = (int) Math.max(0,
+          (tail.size() - EquationCodec.HEADER_SIZE) / EquationCodec.LOG_RECORD_SIZE);
+      long lastSeconds = 0;
+      if (tailCount > 0) {
+        ByteBuffer last = writeBuffer(EquationCodec.LOG_RECORD_SIZE);
+        last.limit(EquationCodec.LOG_RECORD_SIZE);
+        readFully(tail, last, EquationCodec.logSize(tailCount - 1));
+        lastSeconds = last.getInt(4) & 0xFFFFFFFFL;
+      }
+      long seconds = toSeconds(lastSeconds);
+      if (tailCount + sums.size() <= manifest.getCapacity()) {
+        ByteBuffer records = writeBuffer(sums.size() * EquationCodec.LOG_RECORD_SIZE);
+        for (Equation sum : sums) {
+          EquationCodec.putLogEntry(records, EquationCodec.logEntry(sum.encode(), seconds));
+        }
+        records.flip();
+        tail.write(records, EquationCodec.logSize(tailCount));
+        mStore.commitContents(tail);
+        return;
+      }
+      long[] newEntries = toEntries(sums, seconds);
+      long[] tailEntries = EquationCodec.readLog(new ByteArrayInputStream(readAll(tail)));
+      entries = Arrays.copyOf(tailEntries, tailEntries.length + newEntries.length);
+      System.arraycopy(newEntries, 0, entries, tailEntries.length, newEntries.length);
+    } catch (IOException e) {
+      mStore.discardContents(tail);
+      throw e;
+    }
+    mStore.discardContents(tail);
+
+    List<String> segmentIds = new ArrayList<>();
+    int[] counts = createSegments(entries, segmentIds);
+    SegmentManifest newManifest = manifest.withTail(segmentIds, counts);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    newManifest.write(out);
+    AppDataStore.Contents contents = mStore.openFile(manifestId, /* writable= */ true);
+    try {
+      contents.truncate(0);
+      contents.write(ByteBuffer.wrap(out.toByteArray()), 0);
+    } catch (IOException e) {
+      mStore.discardContents(contents);
+      throw e;
+    }
+    mStore.commitContents(contents);
+    cacheManifest(manifestId, null, newManifest);
+    try {
+      mStore.delete(tailId);
+    } catch (IOException e) {
+      // The replaced tail is only stale now; leave it to deleteSums.
+    }
+  }
+
+  /**
+   * Returns the time, in seconds since the epoch, to write new entries of a log at. Entries of a
+   * log never go back in time, even if the clock does, so they are written no earlier than
+   * {@code lastSeconds}, the time of the newest entry of the log.
+   */
+  private static long toSeconds(long lastSeconds) {
+    return Math.max(System.currentTimeMillis() / 1000, lastSeconds);
+  }
+
+  /**
+   * Returns the log entries of {@code sums} written at {@code seconds}.
+   */
+  private static long[] toEntries(List<Equation> sums, long seconds) {
+    long[] entries = new long[sums.size()];
+    for (int i = 0; i < entries.length; i++) {
+      entries[i] = EquationCodec.logEntry(sums.get(i).encode(), seconds);
+    }
+    return entries;
+  }
+
+  /**
+   * Returns {@link #mWriteBuffer}, cleared, grown if it has no room for {@code size} bytes, e.g.
+   * for a log whose manifest was written with a larger segment capacity.
+   */
+  private ByteBuffer writeBuffer(int size) {
+    if (mWriteBuffer.capacity() < size) {
+      mWriteBuffer = ByteBuffer.allocate(size);
+    }
+    mWriteBuffer.clear();
+    return mWriteBuffer;
+  }
+
+  /**
+   * Writes {@code entries} to as many new segments as needed and adds their ids to
+   * {@code segmentIds}. Full segments, which are never appended to, are compressed; the last one
+   * is left uncompressed to become the tail.
+   *
+   * @return the number of entries in each new segment.
+   */
+  private int[] createSegments(long[] entries, List<String> segmentIds) throws IOException {
+    int segments = Math.max(1, (entries.length + mSegmentCapacity - 1) / mSegmentCapacity);
+    int[] counts = new int[segments];
+    for (int i = 0; i < segments; i++) {
+      int from = i * mSegmentCapacity;
+      int to = Math.min(entries.length, (i + 1) * mSegmentCapacity);
+      ByteBuffer log = writeBuffer(EquationCodec.logSize(to - from));
+      EquationCodec.putLog(log, entries, from, to);
+      log.flip();
+      AppDataStore.Contents contents = mStore.createContents();
+      try {
+        if (i < segments - 1) {
+          try (OutputStream out = new BufferedOutputStream(contents.getOutputStream())) {
+            EquationCodec.writeCompressed(out, log);
+          }
+        } else {
+          contents.write(log, 0);
+        }
+      } catch (IOException e) {
+        mStore.discardContents(contents);
+        throw e;
+      }
+      segmentIds.add(mStore.createFile(SEGMENT_TITLE, MIME_TYPE, contents));
+      counts[i] = to - from;
+    }
+    return counts;
+  }
+
+  /**
+   * Starts downloading the segments of {@code log} that are not in {@code copied}, the copy of
+   * the log on the device if any. A segment the copy ends in is downloaded again.
+   *
+   * @return the log to finish reading with {@link #finishRead}.
+   */
+  private PendingLog startRead(ListedLog log, LogMirror.LogEnd copied, ExecutorService executor) {
+    if (copied != null && copied.revision.equals(log.revision)) {
+      return new PendingLog(log, copied.end);
+    }
+    SegmentManifest manifest = log.manifest;
+    if (manifest == null) {
+      PendingLog read = new PendingLog(log, 0);
+      read.reads.add(executor.submit(readBytes(log.id)));
+      return read;
+    }
+
+    List<String> segmentIds = manifest.getSegmentIds();
+    int first = 0;
+    int start = 0;
+    if (copied != null) {
+      // Sealed segments the device already has are not downloaded again.
+      while (first < segmentIds.size() - 1 && start + manifest.getCount(first) <= copied.end) {
+        start += manifest.getCount(first);
+        first++;
+      }
+    } else if (!isOwnLog(log.id)) {
+      // Only the newest segments are needed to show the history; see loadOlderSums. The log of
+      // this device is read whole instead, so that the device keeps all sums answered on it.
+      first = segmentIds.size() - 1;
+      for (int i = 0; i < first; i++) {
+        start += manifest.getCount(i);
+      }
+      int read = 0;
+      while (first > 0 && read < mFirstLoadSums) {
+        first--;
+        start -= manifest.getCount(first);
+        read += manifest.getCount(first);
+      }
+    }
+    PendingLog read = new PendingLog(log, start);
+    for (int i = first; i < segmentIds.size(); i++) {
+      read.reads.add(executor.submit(readBytes(segmentIds.get(i))));
+    }
+    return read;
+  }
+
+  /**
+   * Waits for the downloads started by {@link #startRead} and returns the entries of the log from
+   * {@link PendingLog#first} on.
+   */
+  private static LogMirror.Log finishRead(PendingLog read) throws IOException {
+    long[] entries = new long[0];
+    for (Future<byte[]> segmentRead : read.reads) {
+      long[] segment = EquationCodec.readLog(new ByteArrayInputStream(await(segmentRead)));
+      int length = entries.length;
+      entries = Arrays.copyOf(entries, length + segment.length);
+      System.arraycopy(segment, 0, entries, length, segment.length);
+    }
+    SegmentManifest manifest = read.log.manifest;
+    String deviceId = manifest == null ? "" : manifest.getDeviceId();
+    return new LogMirror.Log(
+        read.log.id, deviceId, manifest != null, read.log.revision, read.first, entries);
+  }
+
+  /**
+   * Reads all bytes of {@code contents}.
+   */
+  private static byte[] readAll(AppDataStore.Contents contents) throws IOException {
+    ByteBuffer bytes = ByteBuffer.allocate((int) contents.size());
+    while (bytes.hasRemaining()) {
+      if (contents.read(bytes, bytes.position()) < 0) {
+        break;
+      }
+    }
+    return Arrays.copyOf(bytes.array(), bytes.position());
+  }
+
+  /**
+   * Fills {@code bytes} from {@code contents} starting at {@code position}.
+   */
+  private static void readFully(AppDataStore.Contents contents, ByteBuffer bytes, long position)
+      throws IOException {
+    while (bytes.hasRemaining()) {
+      if (contents.read(bytes, position + bytes.position()) < 0) {
+        throw new IOException("Unexpected end of file");
+      }
+    }
+  }
+
+  /**
+   * Returns the manifest in the file {@code fileId}, or null if the file is not a manifest. A
+   * cached copy is used if it was read or written at {@code revision}, or if {@code revision} is
+   * null.
+   */
+  private SegmentManifest readManifest(String fileId, String revision) throws IOException {
+    synchronized (this) {
+      CachedManifest cached = mManifests.get(fileId);
+      if (cached != null && (revision == null || revision.equals(cached.revision))) {
+        return cached.manifest;
+      }
+    }
+    AppDataStore.Contents contents = mStore.openFile(fileId, /* writable= */ false);
+    SegmentManifest manifest;
+    try {
+      manifest = SegmentManifest.read(contents.getInputStream());
+    } finally {
+      mStore.discardContents(contents);
+    }
+    if (manifest != null) {
+      cacheManifest(fileId, revision, manifest);
+    }
+    return manifest;
+  }
+
+  /**
+   * Returns a task reading the manifest {@code manifestInfo} at its listed revision.
+   */
+  private Callable<SegmentManifest> readManifestTask(final AppDataStore.FileInfo manifestInfo) {
+    return new Callable<SegmentManifest>() {
+      @Override
+      public SegmentManifest call() throws IOException {
+        return readManifest(manifestInfo.id, manifestInfo.getRevision());
+      }
+    };
+  }
+
+  private synchronized void cacheManifest(
+      String fileId, String revision, SegmentManifest manifest) {
+    mManifests.put(fileId, new CachedManifest(revision, manifest));
+  }
+
+  private synchronized boolean isCached(String fileId) {
+    return mManifests.containsKey(fileId);
+  }
+
+  /**
+   * Caches the manifest read by {@code prefetch} at the revision of {@code manifestInfo} if its
+   * bytes are those of that revision. The prefetch was started before the folder was listed, so
+   * it may have read an older or newer revision; then the manifest is read again.
+   */
+  private void usePrefetchedManifest(AppDataStore.FileInfo manifestInfo, Future<byte[]> prefetch) {
+    byte[] bytes;
+    try {
+      bytes = await(prefetch);
+    } catch (IOException e) {
+      return;
+    }
+    if (manifestInfo.md5 == null || !manifestInfo.md5.equals(md5(bytes))) {
+      return;
+    }
+    try {
+      SegmentManifest manifest = SegmentManifest.read(new ByteArrayInputStream(bytes));
+      if (manifest != null) {
+        cacheManifest(manifestInfo.id, manifestInfo.getRevision(), manifest);
+      }
+    } catch (IOException e) {
+      // Corrupt; reading it again reports it.
+    }
+  }
+
+  /**
+   * Returns a task reading all bytes of the file {@code fileId}.
+   */
+  private Callable<byte[]> readBytes(final String fileId) {
+    return new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws IOException {
+        AppDataStore.Contents contents = mStore.openFile(fileId, /* writable= */ false);
+        try {
+          return readAll(contents);
+        } finally {
+          mStore.discardContents(contents);
+        }
+      }
+    };
+  }
+
+  /**
+   * Waits for {@code task} and returns its result.
+   */
+  private static <T> T await(Future<T> task) throws IOException {
+    try {
+      return task.get();
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof IOException
+          ? (IOException) e.getCause() : new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading App Data.", e);
+    }
+  }
+
+  /**
+   * Returns the MD5 checksum of {@code bytes} in lower-case hex, as in
+   * {@link AppDataStore.FileInfo#md5}.
+   */
+  private static String md5(byte[] bytes) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest(bytes)) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Reads the log entries stored in the file {@code fileId}, oldest first.
+   */
+  private long[] readEntries(String fileId) throws IOException {
+    AppDataStore.Contents contents = mStore.openFile(fileId, /* writable= */ false);
+    try {
+      return EquationCodec.readLog(contents.getInputStream());
+    } finally {
+      mStore.discardContents(contents);
+    }
+  }
+
+  private AppDataStore.FileInfo findFileById(List<AppDataStore.FileInfo> files, String fileId) {
+    for (AppDataStore.FileInfo file : files) {
+      if (mStore.isSameFile(fileId, file.id)) {
+        return file;
+      }
+    }
+    return null;
+  }
+
+  private LogMirror.LogEnd findLog(LogMirror.Summary mirror, String fileId) {
+    for (LogMirror.LogEnd log : mirror.logs) {
+      if (mStore.isSameFile(fileId, log.id)) {
+        return log;
+      }
+    }
+    return null;
+  }
+
+  private Future<byte[]> findPrefetch(Map<String, Future<byte[]>> prefetches, String fileId) {
+    for (Map.Entry<String, Future<byte[]>> prefetch : prefetches.entrySet()) {
+      if (mStore.isSameFile(fileId, prefetch.getKey())) {
+        return prefetch.getValue();
+      }
+    }
+    return null;
+  }
+
+  private boolean isOwnLog(String fileId) {
+    String ownId = mState.getFileId();
+    return ownId != null && mStore.isSameFile(fileId, ownId);
+  }
+
+  private void addIfUnlisted(List<String> fileIds, String fileId) {
+    if (!isListed(fileIds, fileId)) {
+      fileIds.add(fileId);
+    }
+  }
+
+  private boolean isListed(Iterable<String> fileIds, String fileId) {
+    for (String listedId : fileIds) {
+      if (mStore.isSameFile(fileId, listedId)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
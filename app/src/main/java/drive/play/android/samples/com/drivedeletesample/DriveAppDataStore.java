@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import android.os.ParcelFileDescriptor;
+
+import com.google.android.gms.drive.DriveContents;
+import com.google.android.gms.drive.DriveFile;
+import com.google.android.gms.drive.DriveFolder;
+import com.google.android.gms.drive.DriveId;
+import com.google.android.gms.drive.DriveResourceClient;
+import com.google.android.gms.drive.Metadata;
+import com.google.android.gms.drive.MetadataBuffer;
+import com.google.android.gms.drive.MetadataChangeSet;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * {@link AppDataStore} backed by the App Data folder of Google Drive, through a
+ * {@link DriveResourceClient}. File ids are encoded {@link DriveId}s.
+ */
+class DriveAppDataStore implements AppDataStore {
+  private final DriveResourceClient mDriveResourceClient;
+
+  DriveAppDataStore(DriveResourceClient driveResourceClient) {
+    mDriveResourceClient = driveResourceClient;
+  }
+
+  @Override
+  public List<FileInfo> listFiles() throws IOException {
+    DriveFolder appDataFolder = await(mDriveResourceClient.getAppFolder());
+    MetadataBuffer metadataBuffer = await(mDriveResourceClient.listChildren(appDataFolder));
+    try {
+      List<FileInfo> files = new ArrayList<>(metadataBuffer.getCount());
+      for (Metadata metadata : metadataBuffer) {
+        files.add(toFileInfo(metadata));
+      }
+      return files;
+    } finally {
+      metadataBuffer.release();
+    }
+  }
+
+  @Override
+  public boolean isSameFile(String fileId, String otherFileId) {
+    return DriveId.decodeFromString(fileId).equals(DriveId.decodeFromString(otherFileId));
+  }
+
+  @Override
+  public Contents createContents() throws IOException {
+    return new DriveContentsAdapter(await(mDriveResourceClient.createContents()));
+  }
+
+  @Override
+  public String createFile(String title, String mimeType, Contents contents) throws IOException {
+    MetadataChangeSet changeSet =
+        new MetadataChangeSet.Builder().setTitle(title).setMimeType(mimeType).build();
+    DriveFolder appDataFolder = await(mDriveResourceClient.getAppFolder());
+    DriveFile driveFile = await(
+        mDriveResourceClient.createFile(appDataFolder, changeSet, unwrap(contents)));
+    return driveFile.getDriveId().encodeToString();
+  }
+
+  @Override
+  public Contents openFile(String fileId, boolean writable) throws IOException {
+    int mode = writable ? DriveFile.MODE_READ_WRITE : DriveFile.MODE_READ_ONLY;
+    return new DriveContentsAdapter(
+        await(mDriveResourceClient.openFile(asDriveFile(fileId), mode)));
+  }
+
+  @Override
+  public void commitContents(Contents contents) throws IOException {
+    await(mDriveResourceClient.commitContents(unwrap(contents), /* metadataChangeSet= */ null));
+  }
+
+  @Override
+  public void discardContents(Contents contents) {
+    mDriveResourceClient.discardContents(unwrap(contents));
+  }
+
+  @Override
+  public void delete(String fileId) throws IOException {
+    // [START delete_file]
+    // Delete App Data file
+    await(mDriveResourceClient.delete(asDriveFile(fileId)));
+    // [END delete_file]
+  }
+
+  private static DriveFile asDriveFile(String fileId) {
+    return DriveId.decodeFromString(fileId).asDriveFile();
+  }
+
+  private static FileInfo toFileInfo(Metadata metadata) {
+    return new FileInfo(metadata.getDriveId().encodeToString(), metadata.getTitle(),
+        metadata.getModifiedDate().getTime(), metadata.getMd5Checksum(), metadata.getFileSize());
+  }
+
+  private static DriveContents unwrap(Contents contents) {
+    return ((DriveContentsAdapter) contents).mDriveContents;
+  }
+
+  /**
+   * Blocks until {@code task} has completed and returns its result.
+   */
+  private static <T> T await(Task<T> task) throws IOException {
+    try {
+      return Tasks.await(task);
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for Drive.");
+    }
+  }
+
+  /**
+   * Accesses {@link DriveContents} through their file descriptor for positional reads and writes.
+   * The streams created on the descriptor do not own it, so they are never closed.
+   */
+  private static class DriveContentsAdapter implements Contents {
+    private final DriveContents mDriveContents;
+    private FileChannel mReadChannel;
+    private FileChannel mWriteChannel;
+
+    DriveContentsAdapter(DriveContents driveContents) {
+      mDriveContents = driveContents;
+    }
+
+    @Override
+    public long size() {
+      return pfd().getStatSize();
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+      if (mReadChannel == null) {
+        mReadChannel = new FileInputStream(pfd().getFileDescriptor()).getChannel();
+      }
+      return mReadChannel.read(dst, position);
+    }
+
+    @Override
+    public void write(ByteBuffer src, long position) throws IOException {
+      FileChannel channel = writeChannel();
+      while (src.hasRemaining()) {
+        position += channel.write(src, position);
+      }
+    }
+
+    @Override
+    public void truncate(long size) throws IOException {
+      writeChannel().truncate(size);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return mDriveContents.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return mDriveContents.getOutputStream();
+    }
+
+    private ParcelFileDescriptor pfd() {
+      return mDriveContents.getParcelFileDescriptor();
+    }
+
+    private FileChannel writeChannel() {
+      if (mWriteChannel == null) {
+        mWriteChannel = new FileOutputStream(pfd().getFileDescriptor()).getChannel();
+      }
+      return mWriteChannel;
+    }
+  }
+}
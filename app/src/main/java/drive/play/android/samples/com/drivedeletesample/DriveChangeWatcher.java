@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.drive.DriveFolder;
+import com.google.android.gms.drive.DriveId;
+import com.google.android.gms.drive.DriveResource;
+import com.google.android.gms.drive.DriveResourceClient;
+import com.google.android.gms.drive.events.ChangeEvent;
+import com.google.android.gms.drive.events.ChangeListener;
+import com.google.android.gms.drive.events.ListenerToken;
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Subscribes to Drive change events of a set of App Data files, and of the App Folder itself so
+ * that files added by other devices are noticed too, and runs a callback whenever one of them
+ * changes. Subscriptions are added and removed with the Drive change listener APIs of
+ * {@link DriveResourceClient}, which do not block, so methods may be called on any thread.
+ */
+class DriveChangeWatcher {
+  private static final String TAG = "DriveChangeWatcher";
+
+  /** Key of the App Folder in {@link #mTokens}; file ids are encoded {@link DriveId}s. */
+  private static final String APP_FOLDER = "";
+
+  private final DriveResourceClient mDriveResourceClient;
+  private final ChangeListener mChangeListener;
+
+  /** Pending or added subscriptions, by file id. Guarded by this. */
+  private final Map<String, Task<ListenerToken>> mTokens = new HashMap<>();
+
+  /**
+   * @param onChange run on the main thread whenever a watched file or the App Folder changes.
+   */
+  DriveChangeWatcher(DriveResourceClient driveResourceClient, final Runnable onChange) {
+    mDriveResourceClient = driveResourceClient;
+    mChangeListener = new ChangeListener() {
+      @Override
+      public void onChange(ChangeEvent event) {
+        onChange.run();
+      }
+    };
+  }
+
+  /**
+   * Watches the App Folder and the files {@code fileIds}, and stops watching files not among
+   * them. Files already watched are not subscribed to again.
+   */
+  synchronized void watch(Collection<String> fileIds) {
+    List<String> unwatched = new ArrayList<>(mTokens.keySet());
+    unwatched.remove(APP_FOLDER);
+    for (String fileId : fileIds) {
+      unwatched.remove(fileId);
+      if (!mTokens.containsKey(fileId)) {
+        mTokens.put(fileId, subscribe(DriveId.decodeFromString(fileId).asDriveFile()));
+      }
+    }
+    for (String fileId : unwatched) {
+      unsubscribe(mTokens.remove(fileId));
+    }
+    if (!mTokens.containsKey(APP_FOLDER)) {
+      mTokens.put(APP_FOLDER, mDriveResourceClient.getAppFolder().continueWithTask(
+          new Continuation<DriveFolder, Task<ListenerToken>>() {
+            @Override
+            public Task<ListenerToken> then(@NonNull Task<DriveFolder> task) throws Exception {
+              return subscribe(task.getResult());
+            }
+          }));
+    }
+  }
+
+  /**
+   * Stops watching all files and the App Folder.
+   */
+  synchronized void stop() {
+    for (Task<ListenerToken> token : mTokens.values()) {
+      unsubscribe(token);
+    }
+    mTokens.clear();
+  }
+
+  private Task<ListenerToken> subscribe(DriveResource resource) {
+    return mDriveResourceClient.addChangeListener(resource, mChangeListener)
+        .addOnFailureListener(new OnFailureListener() {
+          @Override
+          public void onFailure(@NonNull Exception e) {
+            Log.w(TAG, "Unable to watch App Data for changes.", e);
+          }
+        });
+  }
+
+  /**
+   * Removes the subscription {@code token} once it has been added, if it could be.
+   */
+  private void unsubscribe(Task<ListenerToken> token) {
+    token.addOnSuccessListener(new OnSuccessListener<ListenerToken>() {
+      @Override
+      public void onSuccess(ListenerToken listenerToken) {
+        mDriveResourceClient.removeChangeListener(listenerToken);
+      }
+    });
+  }
+}
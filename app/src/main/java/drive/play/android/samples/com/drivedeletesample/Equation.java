@@ -16,84 +16,201 @@
 
 package drive.play.android.samples.com.drivedeletesample;
 
-import java.util.Random;
-
 /**
  * Represents a simple math equation and its answer.
+ *
+ * <p>An equation can be packed into a single {@code int} record with {@link #encode()} and
+ * restored with {@link #decode(int)}; {@link EquationCodec} stores these records in App Data.
+ * {@link EquationEngine} generates and grades equations in bulk.
  */
 class Equation {
-  private String operation;
+  private static final int P1_SHIFT = 28;
+  private static final int P2_SHIFT = 24;
+  private static final int OPERATION_SHIFT = 22;
+  private static final int CORRECT_BIT = 1 << 21;
+  private static final int ANSWER_MASK = 0xFFFF;
+
+  private Operator operator;
   private int p1;
   private int p2;
   private int answer;
-  private Random random;
 
   Equation() {
-    random = new Random();
-    p1 = generateInteger();
-    p2 = generateInteger();
-    operation = pickOperation();
+    int question = EquationEngine.nextQuestion();
+    p1 = EquationEngine.p1Of(question);
+    p2 = EquationEngine.p2Of(question);
+    operator = EquationEngine.operatorOf(question);
   }
 
-  public String toString() {
-    return p1 + " " + operation + " " + p2 + " = " + answer + " (" + checkAnswer() + ")";
+  /**
+   * Creates an equation that has already been answered, e.g. when restoring saved sums.
+   */
+  Equation(int p1, String operation, int p2, int answer) {
+    this(p1, Operator.fromSymbol(operation), p2, answer);
+  }
+
+  Equation(int p1, Operator operator, int p2, int answer) {
+    if (p1 < 0 || p1 > 9 || p2 < 0 || p2 > 9 || operator == null
+        || (operator == Operator.DIVIDE && p2 == 0)) {
+      String symbol = operator == null ? "?" : operator.symbol();
+      throw new IllegalArgumentException("Invalid equation: " + p1 + " " + symbol + " " + p2);
+    }
+    this.p1 = p1;
+    this.p2 = p2;
+    this.operator = operator;
+    this.answer = answer;
+  }
+
+  /**
+   * Packs this equation into an {@code int}: p1 and p2 take 4 bits each, followed by the 2 bit
+   * operation code and the correctness flag. The answer is stored in the low 16 bits.
+   */
+  int encode() {
+    if (answer < Short.MIN_VALUE || answer > Short.MAX_VALUE) {
+      throw new IllegalStateException("Answer out of range: " + answer);
+    }
+    return encode(p1, operator, p2, answer, isCorrect());
   }
 
   /**
-   * Generates a random integer.
+   * Packs the given equation like {@link #encode()}. {@code answer} must fit in 16 bits.
    */
-  private int generateInteger() {
-    return random.nextInt(10);
+  static int encode(int p1, Operator operator, int p2, int answer, boolean correct) {
+    return (p1 << P1_SHIFT)
+        | (p2 << P2_SHIFT)
+        | (operator.ordinal() << OPERATION_SHIFT)
+        | (correct ? CORRECT_BIT : 0)
+        | (answer & ANSWER_MASK);
   }
 
   /**
-   * Returns the operation chosen using a RNG.
+   * Returns {@code unanswered}, a record with answer 0 marked wrong, answered with {@code answer}.
+   *
+   * @throws IllegalArgumentException if {@code answer} does not fit in a record.
    */
-  private String pickOperation() {
-    int val = random.nextInt(4);
-    switch (val) {
-      case 0:
-        return "+";
-      case 1:
-        return "-";
-      case 2:
-        return "*";
-      case 3:
-        // To keep things simple division is only used if p2 is non zero; otherwise, use addition.
-        return (p2 != 0 ? "/" : "+");
-      default:
-        return "+";
+  static int withAnswer(int unanswered, int answer, boolean correct) {
+    if (answer < Short.MIN_VALUE || answer > Short.MAX_VALUE) {
+      throw new IllegalArgumentException("Answer out of range: " + answer);
     }
+    return unanswered | (correct ? CORRECT_BIT : 0) | (answer & ANSWER_MASK);
+  }
+
+  /**
+   * Restores an equation packed with {@link #encode()}.
+   *
+   * @throws IllegalArgumentException if {@code record} is not a valid encoded equation.
+   */
+  static Equation decode(int record) {
+    if (!isValid(record)) {
+      throw new IllegalArgumentException("Corrupt equation record: " + Integer.toHexString(record));
+    }
+    return new Equation(p1Of(record), operatorOf(record), p2Of(record), answerOf(record));
+  }
+
+  /**
+   * Returns whether {@code record} is an equation packed with {@link #encode()}, without
+   * allocating an {@link Equation}.
+   */
+  static boolean isValid(int record) {
+    int p1 = p1Of(record);
+    int p2 = p2Of(record);
+    if (p1 > 9 || p2 > 9) {
+      return false;
+    }
+    int question = EquationEngine.question(p1, operatorOf(record), p2);
+    return EquationEngine.isAskable(question)
+        && isCorrect(record) == EquationEngine.isCorrect(question, answerOf(record));
+  }
+
+  /**
+   * Returns whether the answer of the packed {@code record} is correct.
+   */
+  static boolean isCorrect(int record) {
+    return (record & CORRECT_BIT) != 0;
   }
 
   /**
-   * Checks the given answer for correctness.
+   * Appends the packed {@code record} to {@code out} in the same form as {@link #toString()},
+   * without allocating an {@link Equation}.
    */
-  private String checkAnswer() {
-    boolean correct;
-    switch (operation) {
-      case "+":
-        correct = (p1 + p2) == answer;
-        break;
-      case "-":
-        correct = (p1 - p2) == answer;
-        break;
-      case "*":
-        correct = (p1 * p2) == answer;
-        break;
-      case "/":
-        // To keep things simple integer division is used.
-        correct = (p1 / p2) == answer;
-        break;
-      default:
-        correct = (p1 + p2) == answer;
-        break;
+  static void format(int record, StringBuilder out) {
+    out.append(p1Of(record))
+        .append(' ').append(operatorOf(record).symbol()).append(' ')
+        .append(p2Of(record))
+        .append(" = ").append(answerOf(record))
+        .append(isCorrect(record) ? " (correct)" : " (wrong)");
+  }
+
+  /**
+   * Returns the first operand of the packed {@code record}.
+   */
+  static int p1Of(int record) {
+    return (record >>> P1_SHIFT) & 0xF;
+  }
+
+  /**
+   * Returns the second operand of the packed {@code record}.
+   */
+  static int p2Of(int record) {
+    return (record >>> P2_SHIFT) & 0xF;
+  }
+
+  /**
+   * Returns the operator of the packed {@code record}.
+   */
+  static Operator operatorOf(int record) {
+    return Operator.fromCode((record >>> OPERATION_SHIFT) & 0x3);
+  }
+
+  /**
+   * Returns the answer of the packed {@code record}.
+   */
+  static int answerOf(int record) {
+    return (short) (record & ANSWER_MASK);
+  }
+
+  /**
+   * Parses a line written by {@link #toString()}, e.g. {@code "3 * 4 = 12 (correct)"}.
+   *
+   * @throws IllegalArgumentException if {@code line} is not a formatted equation.
+   */
+  static Equation parse(String line) {
+    try {
+      int end = line.indexOf(' ');
+      int p1 = Integer.parseInt(line.substring(0, end));
+      int start = end + 1;
+      end = line.indexOf(' ', start);
+      String operation = line.substring(start, end);
+      start = end + 1;
+      end = line.indexOf(" = ", start);
+      int p2 = Integer.parseInt(line.substring(start, end));
+      start = end + 3;
+      end = line.indexOf(' ', start);
+      int answer = Integer.parseInt(line.substring(start, end));
+      return new Equation(p1, operation, p2, answer);
+    } catch (IndexOutOfBoundsException | NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid equation: " + line, e);
     }
-    return correct ? "correct" : "wrong";
+  }
+
+  public String toString() {
+    return p1 + " " + operator.symbol() + " " + p2 + " = " + answer
+        + (isCorrect() ? " (correct)" : " (wrong)");
+  }
+
+  /**
+   * Returns whether the answer is correct.
+   */
+  boolean isCorrect() {
+    return EquationEngine.isCorrect(EquationEngine.question(p1, operator, p2), answer);
   }
 
   String getOperation() {
-    return operation;
+    return operator.symbol();
+  }
+
+  Operator getOperator() {
+    return operator;
   }
 
   int getP1() {
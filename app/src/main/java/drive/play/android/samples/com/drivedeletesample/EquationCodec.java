@@ -0,0 +1,402 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads and writes the App Data file that stores answered {@link Equation}s.
+ *
+ * <p>The file starts with a {@link #HEADER_SIZE} byte header: the magic bytes {@code "SMEQ"}, the
+ * format version, the size of a record and two reserved bytes. It is followed by fixed-width
+ * records produced by {@link Equation#encode()}, oldest equation first, so new equations can be
+ * appended without touching the rest of the file.
+ *
+ * <p>Files that are no longer appended to may be compressed instead: a header with the magic bytes
+ * {@code "SMEZ"}, the container version, flags and reserved bytes is followed by the binary file,
+ * header included, compressed with raw Deflate. With {@link #FLAG_DICTIONARY}, the compressor is
+ * primed with a preset dictionary holding the correctly answered record of every question, which
+ * roughly halves the size of a history.
+ *
+ * <p>Device logs use the same header with {@link #LOG_RECORD_SIZE} byte records: each record is
+ * followed by the time it was written, in seconds since the epoch. Readers that only need the
+ * equations skip the time, as they skip any field appended to a record. Log entries are handled
+ * as longs packing both, see {@link #logEntry}.
+ *
+ * <p>Files written by earlier versions of the sample hold one {@link Equation#toString()} line per
+ * equation, newest first, and are still understood so they can be migrated.
+ */
+final class EquationCodec {
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 8;
+  static final int RECORD_SIZE = 4;
+  static final int LOG_RECORD_SIZE = 8;
+
+  static final int COMPRESSED_VERSION = 1;
+  /** Flag of compressed files whose compressor was primed with the preset dictionary. */
+  static final int FLAG_DICTIONARY = 1;
+
+  /** Size of the buffer compressed output is collected in before it is written. */
+  private static final int COMPRESSED_BUFFER_SIZE = 8192;
+
+  private static final byte[] MAGIC = {'S', 'M', 'E', 'Q'};
+  private static final byte[] COMPRESSED_MAGIC = {'S', 'M', 'E', 'Z'};
+
+  private EquationCodec() {}
+
+  /**
+   * Returns the header that starts every binary file.
+   */
+  static byte[] header() {
+    byte[] header = Arrays.copyOf(MAGIC, HEADER_SIZE);
+    header[4] = VERSION;
+    header[5] = RECORD_SIZE;
+    return header;
+  }
+
+  /**
+   * Returns the log entry of the equation {@code record} written at {@code seconds} since the
+   * epoch.
+   */
+  static long logEntry(int record, long seconds) {
+    return (seconds << 32) | (record & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Returns the equation record of the log entry {@code entry}.
+   */
+  static int recordOf(long entry) {
+    return (int) entry;
+  }
+
+  /**
+   * Returns the time the log entry {@code entry} was written, in seconds since the epoch, or 0 if
+   * it was read from a file without times.
+   */
+  static long secondsOf(long entry) {
+    return entry >>> 32;
+  }
+
+  /**
+   * Returns whether {@code bytes} starts with a header this codec can append records to.
+   */
+  static boolean isCurrentHeader(byte[] bytes) {
+    if (bytes.length < HEADER_SIZE) {
+      return false;
+    }
+    byte[] header = header();
+    for (int i = 0; i < 6; i++) {
+      if (bytes[i] != header[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Writes the header followed by {@code equations}, oldest first. {@code outputStream} is flushed
+   * but not closed.
+   */
+  static void write(OutputStream outputStream, List<Equation> equations) throws IOException {
+    DataOutputStream out = new DataOutputStream(outputStream);
+    out.write(header());
+    for (Equation equation : equations) {
+      out.writeInt(equation.encode());
+    }
+    out.flush();
+  }
+
+  /**
+   * Writes {@code equations}, oldest first, in the compressed format with the preset dictionary.
+   * {@code outputStream} is flushed but not closed.
+   */
+  static void writeCompressed(OutputStream outputStream, List<Equation> equations)
+      throws IOException {
+    Deflater deflater = startCompressed(outputStream);
+    try {
+      DeflaterOutputStream out = new DeflaterOutputStream(outputStream, deflater);
+      write(out, equations);
+      out.finish();
+    } finally {
+      deflater.end();
+    }
+    outputStream.flush();
+  }
+
+  /**
+   * Returns the size in bytes of a device log holding {@code count} entries.
+   */
+  static int logSize(int count) {
+    return HEADER_SIZE + count * LOG_RECORD_SIZE;
+  }
+
+  /**
+   * Puts the log header followed by the log entries {@code entries[from]} to
+   * {@code entries[to - 1]} into {@code buffer}, which must have room for them, see
+   * {@link #logSize}.
+   */
+  static void putLog(ByteBuffer buffer, long[] entries, int from, int to) {
+    buffer.put(MAGIC).put((byte) VERSION).put((byte) LOG_RECORD_SIZE).putShort((short) 0);
+    for (int i = from; i < to; i++) {
+      putLogEntry(buffer, entries[i]);
+    }
+  }
+
+  /**
+   * Puts the log entry {@code entry} into {@code buffer} as a record of a device log.
+   */
+  static void putLogEntry(ByteBuffer buffer, long entry) {
+    buffer.putInt(recordOf(entry)).putInt((int) secondsOf(entry));
+  }
+
+  /**
+   * Writes the remaining bytes of {@code file}, a binary file or device log, in the compressed
+   * format with the preset dictionary. {@code file} must be backed by an array; it is consumed,
+   * and {@code outputStream} is flushed but not closed.
+   */
+  static void writeCompressed(OutputStream outputStream, ByteBuffer file) throws IOException {
+    Deflater deflater = startCompressed(outputStream);
+    try {
+      DeflaterOutputStream out =
+          new DeflaterOutputStream(outputStream, deflater, COMPRESSED_BUFFER_SIZE);
+      out.write(file.array(), file.arrayOffset() + file.position(), file.remaining());
+      out.finish();
+    } finally {
+      deflater.end();
+    }
+    file.position(file.limit());
+    outputStream.flush();
+  }
+
+  /**
+   * Writes the header of a compressed file and returns the deflater, primed with the preset
+   * dictionary, to compress the rest with. The caller must end it.
+   */
+  private static Deflater startCompressed(OutputStream outputStream) throws IOException {
+    byte[] header = Arrays.copyOf(COMPRESSED_MAGIC, HEADER_SIZE);
+    header[4] = COMPRESSED_VERSION;
+    header[5] = FLAG_DICTIONARY;
+    outputStream.write(header);
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, /* nowrap= */ true);
+    deflater.setDictionary(Dictionary.BYTES);
+    return deflater;
+  }
+
+  /**
+   * Reads all equations from {@code inputStream}, oldest first. The binary and compressed formats
+   * as well as the legacy text format are detected from the start of the stream. Records or lines
+   * that cannot be decoded are skipped.
+   */
+  static List<Equation> read(InputStream inputStream) throws IOException {
+    BufferedInputStream in = new BufferedInputStream(inputStream);
+    byte[] header = readHeader(in);
+    if (header != null && Arrays.equals(Arrays.copyOf(header, 4), COMPRESSED_MAGIC)) {
+      // Decompresses as the records are read; the file is never inflated in memory as a whole.
+      Inflater inflater = newInflater(header);
+      try {
+        return read(new InflaterInputStream(in, inflater));
+      } finally {
+        inflater.end();
+      }
+    }
+    if (header != null) {
+      return readRecords(in, header[5]);
+    }
+    return readText(in);
+  }
+
+  /**
+   * Reads all log entries from {@code inputStream}, oldest first, in any format {@link #read}
+   * understands. Equations read from files without times are given time 0. Unlike {@link #read},
+   * corrupt records are kept, so that entries keep their position in the log.
+   */
+  static long[] readLog(InputStream inputStream) throws IOException {
+    BufferedInputStream in = new BufferedInputStream(inputStream);
+    byte[] header = readHeader(in);
+    if (header != null && Arrays.equals(Arrays.copyOf(header, 4), COMPRESSED_MAGIC)) {
+      Inflater inflater = newInflater(header);
+      try {
+        return readLog(new InflaterInputStream(in, inflater));
+      } finally {
+        inflater.end();
+      }
+    }
+    if (header == null) {
+      List<Equation> equations = readText(in);
+      long[] entries = new long[equations.size()];
+      for (int i = 0; i < entries.length; i++) {
+        entries[i] = logEntry(equations.get(i).encode(), 0);
+      }
+      return entries;
+    }
+
+    int recordSize = header[5];
+    if (recordSize < RECORD_SIZE) {
+      throw new IOException("Invalid record size " + recordSize);
+    }
+    long[] entries = new long[64];
+    int count = 0;
+    DataInputStream data = new DataInputStream(in);
+    try {
+      while (true) {
+        int record = data.readInt();
+        long seconds = 0;
+        if (recordSize >= LOG_RECORD_SIZE) {
+          seconds = data.readInt() & 0xFFFFFFFFL;
+          data.skipBytes(recordSize - LOG_RECORD_SIZE);
+        } else {
+          data.skipBytes(recordSize - RECORD_SIZE);
+        }
+        if (count == entries.length) {
+          entries = Arrays.copyOf(entries, count * 2);
+        }
+        entries[count++] = logEntry(record, seconds);
+      }
+    } catch (EOFException e) {
+      // End of file; an incomplete trailing entry is ignored.
+    }
+    return Arrays.copyOf(entries, count);
+  }
+
+  /**
+   * Reads the header of a binary or compressed file from {@code in}.
+   *
+   * @return the header, or null, with {@code in} reset to its start, if it is a text file.
+   */
+  private static byte[] readHeader(BufferedInputStream in) throws IOException {
+    in.mark(HEADER_SIZE);
+    byte[] header = new byte[HEADER_SIZE];
+    int length = 0;
+    while (length < HEADER_SIZE) {
+      int read = in.read(header, length, HEADER_SIZE - length);
+      if (read < 0) {
+        break;
+      }
+      length += read;
+    }
+
+    if (length == HEADER_SIZE && Arrays.equals(Arrays.copyOf(header, 4), COMPRESSED_MAGIC)) {
+      if (header[4] > COMPRESSED_VERSION) {
+        throw new IOException("Unsupported compressed file version " + header[4]);
+      }
+      return header;
+    }
+    if (length == HEADER_SIZE && Arrays.equals(Arrays.copyOf(header, 4), MAGIC)) {
+      if (header[4] > VERSION) {
+        throw new IOException("Unsupported equation file version " + header[4]);
+      }
+      return header;
+    }
+    in.reset();
+    return null;
+  }
+
+  /**
+   * Returns an inflater for the rest of the compressed file with {@code header}. The caller must
+   * end it.
+   */
+  private static Inflater newInflater(byte[] header) {
+    Inflater inflater = new Inflater(/* nowrap= */ true);
+    if ((header[5] & FLAG_DICTIONARY) != 0) {
+      inflater.setDictionary(Dictionary.BYTES);
+    }
+    return inflater;
+  }
+
+  private static List<Equation> readRecords(InputStream inputStream, int recordSize)
+      throws IOException {
+    if (recordSize < RECORD_SIZE) {
+      throw new IOException("Invalid record size " + recordSize);
+    }
+    List<Equation> equations = new ArrayList<>();
+    DataInputStream in = new DataInputStream(inputStream);
+    try {
+      while (true) {
+        int record = in.readInt();
+        // Newer versions may append fields to a record; they are not needed here.
+        in.skipBytes(recordSize - RECORD_SIZE);
+        try {
+          equations.add(Equation.decode(record));
+        } catch (IllegalArgumentException e) {
+          // Skip the corrupt record but keep the rest of the history.
+        }
+      }
+    } catch (EOFException e) {
+      // End of file; an incomplete trailing record is ignored.
+    }
+    return equations;
+  }
+
+  private static List<Equation> readText(InputStream inputStream) throws IOException {
+    List<Equation> equations = new ArrayList<>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      try {
+        equations.add(Equation.parse(line));
+      } catch (IllegalArgumentException e) {
+        // Skip lines that are not equations.
+      }
+    }
+    // The original format stored the newest equation first.
+    Collections.reverse(equations);
+    return equations;
+  }
+
+  /**
+   * The preset dictionary: the correctly answered record of every question that can be asked, in
+   * {@link EquationEngine} question order. Compressed files depend on it, so it must never change;
+   * a different dictionary needs a new flag.
+   */
+  private static final class Dictionary {
+    static final byte[] BYTES = build();
+
+    private static byte[] build() {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      try {
+        for (int question = 0; question < EquationEngine.QUESTION_COUNT; question++) {
+          if (EquationEngine.isAskable(question)) {
+            out.writeInt(Equation.encode(EquationEngine.p1Of(question),
+                EquationEngine.operatorOf(question), EquationEngine.p2Of(question),
+                EquationEngine.expected(question), /* correct= */ true));
+          }
+        }
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+      return bytes.toByteArray();
+    }
+  }
+}
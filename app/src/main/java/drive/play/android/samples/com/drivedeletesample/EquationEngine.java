@@ -0,0 +1,204 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Generates and grades equations in bulk, e.g. for drill sets and worksheets.
+ *
+ * <p>A question, i.e. an equation before it is answered, is an index into the operand space of 10
+ * first operands, 10 second operands and 4 operators: {@code (p1 * 10 + p2) * 4 + code}, where
+ * {@code code} is the {@link Operator} ordinal. The expected result and the record bits of every
+ * question are precomputed, so grading is a table lookup and does not allocate.
+ *
+ * <p>Questions are generated like {@link Equation#Equation()} always has: both operands and the
+ * operator are uniformly distributed, except that division by zero is replaced by addition.
+ */
+final class EquationEngine {
+  /** Number of questions in the operand space. */
+  static final int QUESTION_COUNT = 10 * 10 * 4;
+
+  /** Expected result of questions that are never asked, i.e. division by zero. */
+  private static final int NO_RESULT = Integer.MIN_VALUE;
+
+  /** Number of questions generated per task in parallel mode. */
+  private static final int PARALLEL_CHUNK_SIZE = 1 << 14;
+
+  private static final int[] EXPECTED = new int[QUESTION_COUNT];
+
+  /** Records of the questions with answer 0 marked wrong; see {@link Equation#withAnswer}. */
+  private static final int[] UNANSWERED_RECORDS = new int[QUESTION_COUNT];
+
+  static {
+    for (int question = 0; question < QUESTION_COUNT; question++) {
+      int p1 = p1Of(question);
+      int p2 = p2Of(question);
+      Operator operator = operatorOf(question);
+      if (operator == Operator.DIVIDE && p2 == 0) {
+        EXPECTED[question] = NO_RESULT;
+      } else {
+        EXPECTED[question] = operator.apply(p1, p2);
+        UNANSWERED_RECORDS[question] = Equation.encode(p1, operator, p2, 0, false);
+      }
+    }
+  }
+
+  /** Generator for single questions, which may be drawn on any thread. Guarded by the class. */
+  private static final SplitMixRandom sRandom =
+      new SplitMixRandom(SplitMixRandom.mix64(System.currentTimeMillis()) ^ System.nanoTime());
+
+  private EquationEngine() {}
+
+  /**
+   * Returns the question {@code p1 operator p2}.
+   */
+  static int question(int p1, Operator operator, int p2) {
+    return (p1 * 10 + p2) * 4 + operator.ordinal();
+  }
+
+  static int p1Of(int question) {
+    return question / 40;
+  }
+
+  static int p2Of(int question) {
+    return question / 4 % 10;
+  }
+
+  static Operator operatorOf(int question) {
+    return Operator.fromCode(question & 3);
+  }
+
+  /**
+   * Returns whether {@code question} may be asked, i.e. it is not a division by zero.
+   */
+  static boolean isAskable(int question) {
+    return EXPECTED[question] != NO_RESULT;
+  }
+
+  /**
+   * Returns the expected result of an askable {@code question}.
+   */
+  static int expected(int question) {
+    return EXPECTED[question];
+  }
+
+  /**
+   * Returns whether {@code answer} is the correct answer to {@code question}.
+   */
+  static boolean isCorrect(int question, int answer) {
+    return EXPECTED[question] == answer;
+  }
+
+  /**
+   * Returns a random question drawn from a generator shared by the whole process.
+   */
+  static int nextQuestion() {
+    synchronized (EquationEngine.class) {
+      return nextQuestion(sRandom);
+    }
+  }
+
+  /**
+   * Returns a random question drawn from {@code random}.
+   */
+  static int nextQuestion(SplitMixRandom random) {
+    int question = random.nextInt(QUESTION_COUNT);
+    // To keep things simple division is only used if p2 is non zero; otherwise, use addition.
+    return isAskable(question) ? question : question - Operator.DIVIDE.ordinal();
+  }
+
+  /**
+   * Fills {@code questions[offset, offset + count)} with random questions drawn from
+   * {@code random}.
+   */
+  static void generate(int[] questions, int offset, int count, SplitMixRandom random) {
+    for (int i = offset, end = offset + count; i < end; i++) {
+      questions[i] = nextQuestion(random);
+    }
+  }
+
+  /**
+   * Like {@link #generate}, but splits the work into chunks run on {@code executor}. Each chunk
+   * draws from its own generator split off {@code random}, so the questions only depend on the
+   * state of {@code random}, not on the number of threads.
+   */
+  static void generateParallel(final int[] questions, int offset, int count,
+      SplitMixRandom random, ExecutorService executor) throws InterruptedException {
+    List<Callable<Void>> tasks = new ArrayList<>(count / PARALLEL_CHUNK_SIZE + 1);
+    for (int start = offset, end = offset + count; start < end; start += PARALLEL_CHUNK_SIZE) {
+      final int chunkStart = start;
+      final int chunkCount = Math.min(PARALLEL_CHUNK_SIZE, end - start);
+      final SplitMixRandom chunkRandom = random.split();
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          generate(questions, chunkStart, chunkCount, chunkRandom);
+          return null;
+        }
+      });
+    }
+    for (Future<Void> future : executor.invokeAll(tasks)) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Unable to generate questions.", e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Grades {@code answers[offset, offset + count)} against the questions at the same positions.
+   * If {@code records} is not null, the graded equations are stored there at the same positions,
+   * packed as by {@link Equation#encode()}.
+   *
+   * @return the number of correct answers.
+   * @throws IllegalArgumentException if a question is not askable or, when records are requested,
+   *     an answer does not fit in a record.
+   */
+  static int grade(int[] questions, int[] answers, int offset, int count, int[] records) {
+    int correct = 0;
+    for (int i = offset, end = offset + count; i < end; i++) {
+      int question = questions[i];
+      if (!isAskable(question)) {
+        throw new IllegalArgumentException("Question is not askable: " + question);
+      }
+      boolean isCorrect = EXPECTED[question] == answers[i];
+      if (isCorrect) {
+        correct++;
+      }
+      if (records != null) {
+        records[i] = Equation.withAnswer(UNANSWERED_RECORDS[question], answers[i], isCorrect);
+      }
+    }
+    return correct;
+  }
+
+  /**
+   * Appends {@code question} to {@code out} as it is shown to the user, e.g. {@code "3 * 4"}.
+   */
+  static void formatQuestion(int question, StringBuilder out) {
+    out.append(p1Of(question))
+        .append(' ').append(operatorOf(question).symbol()).append(' ')
+        .append(p2Of(question));
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+/**
+ * In-memory history of answered equations, held as records packed with
+ * {@link Equation#encode()} in a single growable {@code int[]}, i.e. 4 bytes per equation.
+ *
+ * <p>Records are kept oldest first with free space at both ends of the array, so that newly
+ * answered equations can be added at one end and older pages of the history at the other without
+ * moving the records in between. Positions are counted from the newest equation, the order in
+ * which the history is shown.
+ */
+class EquationHistory {
+  private static final int INITIAL_CAPACITY = 64;
+
+  private int[] mRecords = new int[INITIAL_CAPACITY];
+
+  /** Index in {@link #mRecords} of the oldest record. */
+  private int mHead = INITIAL_CAPACITY / 2;
+  private int mSize;
+
+  /**
+   * Returns the number of equations held.
+   */
+  int size() {
+    return mSize;
+  }
+
+  /**
+   * Returns the packed record at {@code position}, where position 0 is the newest equation.
+   */
+  int get(int position) {
+    if (position < 0 || position >= mSize) {
+      throw new IndexOutOfBoundsException("position " + position + ", size " + mSize);
+    }
+    return mRecords[mHead + mSize - 1 - position];
+  }
+
+  /**
+   * Adds {@code record} as the newest equation.
+   */
+  void addNewest(int record) {
+    if (mHead + mSize == mRecords.length) {
+      grow(0, 1);
+    }
+    mRecords[mHead + mSize] = record;
+    mSize++;
+  }
+
+  /**
+   * Adds {@code count} records from {@code records}, oldest first, as the oldest equations.
+   */
+  void addOldest(int[] records, int offset, int count) {
+    if (mHead < count) {
+      grow(count, 0);
+    }
+    mHead -= count;
+    System.arraycopy(records, offset, mRecords, mHead, count);
+    mSize += count;
+  }
+
+  /**
+   * Removes all equations and releases the memory they used.
+   */
+  void clear() {
+    mRecords = new int[INITIAL_CAPACITY];
+    mHead = INITIAL_CAPACITY / 2;
+    mSize = 0;
+  }
+
+  /**
+   * Returns the approximate number of heap bytes used by this history.
+   */
+  long memoryBytes() {
+    // Object headers and fields are negligible next to the record array.
+    return 16 + 4L * mRecords.length;
+  }
+
+  /**
+   * Grows the record array so that at least {@code before} free slots precede the oldest record
+   * and {@code after} free slots follow the newest one.
+   */
+  private void grow(int before, int after) {
+    int capacity = Math.max(mRecords.length * 2, mSize + before + after + INITIAL_CAPACITY);
+    // Split the spare space evenly so both ends can keep growing.
+    int head = Math.max(before, (capacity - mSize - after) / 2);
+    int[] records = new int[capacity];
+    System.arraycopy(mRecords, mHead, records, head, mSize);
+    mRecords = records;
+    mHead = head;
+  }
+}
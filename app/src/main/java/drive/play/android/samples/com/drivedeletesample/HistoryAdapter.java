@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+/**
+ * Shows an {@link EquationHistory}, newest equation first. Row text is formatted from the packed
+ * records only when a row is bound, and row views are recycled.
+ */
+class HistoryAdapter extends BaseAdapter {
+  private final LayoutInflater mInflater;
+  private final EquationHistory mHistory;
+
+  /** Reused for formatting rows; only touched on the main thread. */
+  private final StringBuilder mRowText = new StringBuilder();
+
+  HistoryAdapter(Context context, EquationHistory history) {
+    mInflater = LayoutInflater.from(context);
+    mHistory = history;
+  }
+
+  @Override
+  public int getCount() {
+    return mHistory.size();
+  }
+
+  /**
+   * Returns the {@link Equation} at {@code position}. Prefer {@link #getRecord(int)}, which does
+   * not allocate.
+   */
+  @Override
+  public Equation getItem(int position) {
+    return Equation.decode(mHistory.get(position));
+  }
+
+  /**
+   * Returns the packed record at {@code position}.
+   */
+  int getRecord(int position) {
+    return mHistory.get(position);
+  }
+
+  @Override
+  public long getItemId(int position) {
+    return position;
+  }
+
+  @Override
+  public View getView(int position, View convertView, ViewGroup parent) {
+    TextView view = (TextView) convertView;
+    if (view == null) {
+      view = (TextView) mInflater.inflate(android.R.layout.simple_list_item_1, parent, false);
+    }
+    mRowText.setLength(0);
+    Equation.format(mHistory.get(position), mRowText);
+    view.setText(mRowText);
+    return view;
+  }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.BaseAdapter;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shows the history held in a {@link LocalHistoryStore} through an {@link EquationHistory} and
+ * the adapter that displays it, newest equation first, one page at a time.
+ *
+ * <p>Pages are read on a background thread and copied into the history on the main thread as packed
+ * records, so the main thread only ever handles one page of records per message. The newest page is
+ * shown first; older pages are read when {@link #loadOlder()} is called, e.g. as the list is
+ * scrolled towards its end, first from the store and then, once the store has none left, through an
+ * {@link OlderSumsLoader} from App Data. The {@link AccuracyStats} of the store are read with the
+ * newest page and updated as equations are appended. Appended equations are stored on the same
+ * background thread and shown once stored. All methods must be called on the main thread.
+ */
+class HistoryPager {
+  private static final String TAG = "HistoryPager";
+
+  /**
+   * Receives the statistics of the store whenever they change. Called on the main thread.
+   */
+  interface StatsListener {
+    void onStatsChanged(AccuracyStats stats);
+  }
+
+  /**
+   * Adds older equations to the store when all stored ones are shown. Called on the main thread.
+   */
+  interface OlderSumsLoader {
+    /**
+     * Adds older equations, if there are any, with {@link LocalHistoryStore#addOlder}, then runs
+     * {@code onDone} on any thread, also if none could be added.
+     */
+    void loadOlderSums(Runnable onDone);
+  }
+
+  /**
+   * Stores appended equations. Called on a background thread.
+   */
+  interface Appender {
+    /**
+     * Stores {@code equation} as the newest equation of the store.
+     */
+    void append(Equation equation) throws IOException;
+  }
+
+  private final LocalHistoryStore mStore;
+  private final EquationHistory mHistory;
+  private final BaseAdapter mAdapter;
+  private final int mPageSize;
+  private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+  private StatsListener mStatsListener;
+  private OlderSumsLoader mOlderSumsLoader;
+  private Appender mAppender;
+
+  /** Incremented to drop pages requested before a reload or clear. */
+  private int mGeneration;
+
+  /** Store version the shown pages were read from. */
+  private int mStoreVersion = -1;
+
+  /** Index in the store of the oldest equation shown. */
+  private int mOldestShown;
+
+  /** {@link LocalHistoryStore#getFirstIndex()} when the last page was read. */
+  private int mFirstStored;
+
+  /** Whether {@link #mOlderSumsLoader} is adding older equations to the store. */
+  private boolean mLoadingOlderSums;
+
+  /** Whether a page is being read. */
+  private boolean mLoading;
+
+  /** Whether {@link #shutdown()} has been called; later requests are ignored. */
+  private boolean mShutdown;
+
+  private boolean mReloading;
+  /** Run once the reload in progress has shown its page, or null. */
+  private Runnable mOnReloaded;
+
+  HistoryPager(
+      LocalHistoryStore store, EquationHistory history, BaseAdapter adapter, int pageSize) {
+    mStore = store;
+    mHistory = history;
+    mAdapter = adapter;
+    mPageSize = pageSize;
+    mAppender = new Appender() {
+      @Override
+      public void append(Equation equation) throws IOException {
+        mStore.append(equation);
+      }
+    };
+  }
+
+  void setStatsListener(StatsListener listener) {
+    mStatsListener = listener;
+  }
+
+  void setOlderSumsLoader(OlderSumsLoader loader) {
+    mOlderSumsLoader = loader;
+  }
+
+  /**
+   * Sets how appended equations are stored; by default they are appended to the store.
+   */
+  void setAppender(Appender appender) {
+    mAppender = appender;
+  }
+
+  /**
+   * Replaces the shown equations with the newest page of the store. The current rows stay visible
+   * until the page has been read.
+   */
+  void reload() {
+    reload(null);
+  }
+
+  /**
+   * Like {@link #reload()}, and runs {@code onReloaded}, if not null, once the newest page is
+   * shown. It is not run if the reload is superseded by another reload or a clear.
+   */
+  void reload(Runnable onReloaded) {
+    if (mShutdown) {
+      return;
+    }
+    mGeneration++;
+    mReloading = true;
+    mOnReloaded = onReloaded;
+    requestPage(Integer.MAX_VALUE);
+  }
+
+  /**
+   * Shows the next page of older equations, if there is one and no page is being read.
+   */
+  void loadOlder() {
+    if (mShutdown || mLoading || mReloading || mOldestShown == 0) {
+      return;
+    }
+    if (mOldestShown > mFirstStored) {
+      requestPage(mOldestShown);
+      return;
+    }
+    if (mOlderSumsLoader == null || mLoadingOlderSums) {
+      return;
+    }
+    mLoadingOlderSums = true;
+    mOlderSumsLoader.loadOlderSums(new Runnable() {
+      @Override
+      public void run() {
+        mMainHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            mLoadingOlderSums = false;
+            if (mShutdown) {
+              return;
+            }
+            int firstStored;
+            AccuracyStats stats;
+            try {
+              firstStored = mStore.getFirstIndex();
+              stats = mStore.getStats();
+            } catch (IOException e) {
+              Log.e(TAG, "Unable to read sums stored on the device.", e);
+              return;
+            }
+            // Show the added equations without waiting for the list to be scrolled again. If
+            // none were added, the next scroll tries again.
+            if (firstStored < mFirstStored) {
+              mFirstStored = firstStored;
+              if (mStatsListener != null) {
+                mStatsListener.onStatsChanged(stats);
+              }
+              loadOlder();
+            }
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Stores {@code equation} as the newest equation in the background and then shows it at the top
+   * of the list.
+   */
+  void append(final Equation equation) {
+    if (mShutdown) {
+      return;
+    }
+    final int generation = mGeneration;
+    final Appender appender = mAppender;
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        final AccuracyStats stats;
+        try {
+          appender.append(equation);
+          // A copy of the counters the store has just updated; nothing is read.
+          stats = mStore.getStats();
+        } catch (IOException e) {
+          Log.e(TAG, "Unable to store sum on the device.", e);
+          return;
+        }
+        mMainHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            // Pages are read on this thread too, so the page of a reload requested since this
+            // append holds the equation already.
+            if (generation == mGeneration) {
+              showAppended(equation, stats);
+            }
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Removes all shown equations, e.g. after the store has been cleared.
+   */
+  void clear() {
+    mGeneration++;
+    mReloading = false;
+    mOnReloaded = null;
+    mLoading = false;
+    mOldestShown = 0;
+    mFirstStored = 0;
+    mStoreVersion = mStore.getVersion();
+    mHistory.clear();
+    mAdapter.notifyDataSetChanged();
+    if (mStatsListener != null) {
+      mStatsListener.onStatsChanged(new AccuracyStats());
+    }
+  }
+
+  /**
+   * Stops showing pages and appended equations. Equations whose append has been requested are
+   * still stored. Later calls, e.g. from callbacks that outlive the activity, are ignored.
+   */
+  void shutdown() {
+    mShutdown = true;
+    mGeneration++;
+    // Not shutdownNow(): queued appends store answers that are not kept anywhere else.
+    mExecutor.shutdown();
+  }
+
+  private void requestPage(final int end) {
+    mLoading = true;
+    final int generation = mGeneration;
+    final boolean readStats = mReloading && mStatsListener != null;
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        final LocalHistoryStore.Page page;
+        final AccuracyStats stats;
+        try {
+          page = mStore.readPage(end, mPageSize);
+          stats = readStats ? mStore.getStats() : null;
+        } catch (IOException e) {
+          Log.e(TAG, "Unable to read sums stored on the device.", e);
+          mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+              if (generation == mGeneration) {
+                mLoading = false;
+                mReloading = false;
+                mOnReloaded = null;
+              }
+            }
+          });
+          return;
+        }
+        mMainHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            if (generation == mGeneration) {
+              if (stats != null) {
+                mStatsListener.onStatsChanged(stats);
+              }
+              showPage(page);
+            }
+          }
+        });
+      }
+    });
+  }
+
+  private void showAppended(Equation equation, AccuracyStats stats) {
+    mHistory.addNewest(equation.encode());
+    mAdapter.notifyDataSetChanged();
+    if (mStatsListener != null) {
+      mStatsListener.onStatsChanged(stats);
+    }
+  }
+
+  private void showPage(LocalHistoryStore.Page page) {
+    mLoading = false;
+    Runnable onReloaded = null;
+    if (mReloading) {
+      onReloaded = mOnReloaded;
+      mOnReloaded = null;
+      mReloading = false;
+      mStoreVersion = page.version;
+      mHistory.clear();
+    } else if (page.version != mStoreVersion) {
+      // The store was rewritten since the shown pages were read; a reload is on its way.
+      return;
+    }
+    mHistory.addOldest(page.records, 0, page.records.length);
+    mOldestShown = page.start;
+    mFirstStored = page.firstIndex;
+    if (Log.isLoggable(TAG, Log.DEBUG)) {
+      Log.d(TAG, "Showing " + mHistory.size() + " sums in " + mHistory.memoryBytes() + " bytes.");
+    }
+    mAdapter.notifyDataSetChanged();
+    if (onReloaded != null) {
+      onReloaded.run();
+    }
+  }
+}
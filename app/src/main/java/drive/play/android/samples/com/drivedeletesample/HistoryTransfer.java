@@ -0,0 +1,500 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves the history to and from CSV and JSON files, e.g. in shared storage, in constant memory:
+ * an export reads the {@link LocalHistoryStore} one page at a time, after the {@link OlderSums}
+ * that are not stored, if any, and an import hands the
+ * equations it reads to a {@link BatchSink} in batches of a fixed size, each before the next one
+ * is read. Files are read and written through buffers of {@link #BUFFER_SIZE} characters.
+ *
+ * <p>CSV files have a header row followed by one row per equation, oldest first:
+ * <pre>
+ * p1,operator,p2,answer,correct
+ * 3,*,4,12,true
+ * </pre>
+ * JSON files hold an array of one object per equation, oldest first:
+ * <pre>
+ * [
+ * {"p1":3,"operator":"*","p2":4,"answer":12,"correct":true}
+ * ]
+ * </pre>
+ * On import the format is detected from the first character. Whether an answer is correct is
+ * graded again rather than read, and rows or objects that do not hold a valid equation are
+ * skipped, like corrupt records elsewhere.
+ */
+final class HistoryTransfer {
+  /** Size, in characters, of the buffers files are read and written through. */
+  static final int BUFFER_SIZE = 8192;
+
+  /** Number of equations an export reads from the store at a time. */
+  private static final int EXPORT_PAGE_SIZE = 1024;
+
+  /** An export reports its progress every this many equations. */
+  private static final int EXPORT_PROGRESS_INTERVAL = 10000;
+
+  private static final String CSV_HEADER = "p1,operator,p2,answer,correct";
+
+  /**
+   * A file format of exported histories.
+   */
+  enum Format {
+    CSV("text/csv", "csv"),
+    JSON("application/json", "json");
+
+    private final String mMimeType;
+    private final String mExtension;
+
+    Format(String mimeType, String extension) {
+      mMimeType = mimeType;
+      mExtension = extension;
+    }
+
+    String mimeType() {
+      return mMimeType;
+    }
+
+    /**
+     * Returns the file name extension of this format, e.g. {@code "csv"}.
+     */
+    String extension() {
+      return mExtension;
+    }
+  }
+
+  /**
+   * Receives the progress of an export or import.
+   */
+  interface ProgressListener {
+    /**
+     * Called from time to time with the number of equations exported, or imported and stored by
+     * the {@link BatchSink}, so far.
+     */
+    void onProgress(long count);
+  }
+
+  /**
+   * Destination of imported equations.
+   */
+  interface BatchSink {
+    /**
+     * Stores {@code batch}, oldest equation first. The list is reused for the next batch once
+     * this returns.
+     */
+    void write(List<Equation> batch) throws IOException;
+  }
+
+  /**
+   * Receives equations packed with {@link Equation#encode()}, oldest first.
+   */
+  interface RecordSink {
+    void write(int record) throws IOException;
+  }
+
+  /**
+   * The part of the history that is older than the equations in the store, e.g. because it is
+   * only in App Data.
+   */
+  interface OlderSums {
+    /**
+     * Writes the equations older than the oldest stored one to {@code sink}, oldest first.
+     */
+    void read(RecordSink sink) throws IOException;
+  }
+
+  private HistoryTransfer() {}
+
+  /**
+   * Writes the equations in {@code store}, oldest first, to {@code outputStream} in
+   * {@code format}. {@code outputStream} is flushed but not closed.
+   *
+   * @return the number of equations written.
+   * @throws IOException if the file cannot be written, or if the stored history is replaced or
+   *     cleared during the export.
+   */
+  static long export(LocalHistoryStore store, Format format, OutputStream outputStream,
+      ProgressListener listener) throws IOException {
+    return export(store, null, format, outputStream, listener);
+  }
+
+  /**
+   * Like {@link #export(LocalHistoryStore, Format, OutputStream, ProgressListener)}, but writes
+   * {@code olderSums}, if not null, before the equations in {@code store}.
+   */
+  static long export(LocalHistoryStore store, OlderSums olderSums, Format format,
+      OutputStream outputStream, ProgressListener listener) throws IOException {
+    Writer out = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"), BUFFER_SIZE);
+    out.write(format == Format.CSV ? CSV_HEADER : "[");
+    LocalHistoryStore.Page page = store.readPage(Integer.MAX_VALUE, 0);
+    int end = page.end;
+    int version = page.version;
+    RowWriter rows = new RowWriter(out, format, listener);
+    if (olderSums != null) {
+      olderSums.read(rows);
+    }
+    for (int start = page.firstIndex; start < end; start += EXPORT_PAGE_SIZE) {
+      int pageSize = Math.min(EXPORT_PAGE_SIZE, end - start);
+      page = store.readPage(start + pageSize, pageSize);
+      if (page.version != version) {
+        throw new IOException("The history was replaced during the export.");
+      }
+      for (int record : page.records) {
+        rows.write(record);
+      }
+    }
+    out.write(format == Format.CSV ? "\n" : "\n]\n");
+    out.flush();
+    listener.onProgress(rows.mCount);
+    return rows.mCount;
+  }
+
+  /**
+   * Writes exported equations as rows of a file.
+   */
+  private static final class RowWriter implements RecordSink {
+    private final Writer mOut;
+    private final Format mFormat;
+    private final ProgressListener mListener;
+    private final StringBuilder mRow = new StringBuilder();
+    private long mCount;
+
+    RowWriter(Writer out, Format format, ProgressListener listener) {
+      mOut = out;
+      mFormat = format;
+      mListener = listener;
+    }
+
+    @Override
+    public void write(int record) throws IOException {
+      mRow.setLength(0);
+      if (mFormat == Format.CSV) {
+        mRow.append('\n');
+        appendCsv(record, mRow);
+      } else {
+        mRow.append(mCount == 0 ? "\n" : ",\n");
+        appendJson(record, mRow);
+      }
+      mOut.append(mRow);
+      mCount++;
+      if (mCount % EXPORT_PROGRESS_INTERVAL == 0) {
+        mListener.onProgress(mCount);
+      }
+    }
+  }
+
+  /**
+   * Reads the equations in {@code inputStream}, a CSV or JSON file written by {@link #export},
+   * and hands them, oldest first, to {@code sink} in batches of at most {@code batchSize}.
+   * {@code inputStream} is not closed.
+   *
+   * @return the number of equations imported.
+   * @throws IOException if the file cannot be read or is not a JSON array of objects, or if
+   *     {@code sink} fails. Batches stored before are kept.
+   */
+  static long importSums(InputStream inputStream, int batchSize, BatchSink sink,
+      ProgressListener listener) throws IOException {
+    TextReader in = new TextReader(new InputStreamReader(inputStream, "UTF-8"));
+    boolean json = in.skipWhitespace() == '[';
+    if (json) {
+      in.read();
+    }
+    List<Equation> batch = new ArrayList<>(batchSize);
+    long count = 0;
+    Equation sum;
+    while ((sum = json ? nextJson(in) : nextCsv(in)) != null) {
+      batch.add(sum);
+      if (batch.size() == batchSize) {
+        sink.write(batch);
+        count += batch.size();
+        batch.clear();
+        listener.onProgress(count);
+      }
+    }
+    if (!batch.isEmpty()) {
+      sink.write(batch);
+      count += batch.size();
+    }
+    listener.onProgress(count);
+    return count;
+  }
+
+  private static void appendCsv(int record, StringBuilder out) {
+    out.append(Equation.p1Of(record))
+        .append(',').append(Equation.operatorOf(record).symbol())
+        .append(',').append(Equation.p2Of(record))
+        .append(',').append(Equation.answerOf(record))
+        .append(',').append(Equation.isCorrect(record));
+  }
+
+  private static void appendJson(int record, StringBuilder out) {
+    out.append("{\"p1\":").append(Equation.p1Of(record))
+        .append(",\"operator\":\"").append(Equation.operatorOf(record).symbol())
+        .append("\",\"p2\":").append(Equation.p2Of(record))
+        .append(",\"answer\":").append(Equation.answerOf(record))
+        .append(",\"correct\":").append(Equation.isCorrect(record))
+        .append('}');
+  }
+
+  /**
+   * Returns the next valid equation of the CSV file {@code in}, or null at its end.
+   */
+  private static Equation nextCsv(TextReader in) throws IOException {
+    String line;
+    while ((line = in.readLine()) != null) {
+      // The header, empty lines and invalid rows are skipped.
+      String[] fields = line.split(",", -1);
+      if (fields.length >= 4) {
+        Equation sum = toEquation(fields[0], fields[1], fields[2], fields[3]);
+        if (sum != null) {
+          return sum;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the next valid equation of the JSON array {@code in}, whose opening bracket has been
+   * read, or null at its end.
+   */
+  private static Equation nextJson(TextReader in) throws IOException {
+    while (true) {
+      int c = in.skipWhitespace();
+      if (c == ',') {
+        in.read();
+        continue;
+      }
+      if (c < 0 || c == ']') {
+        return null;
+      }
+      in.expect('{');
+      String p1 = null;
+      String operation = null;
+      String p2 = null;
+      String answer = null;
+      while ((c = in.skipWhitespace()) != '}') {
+        if (c == ',') {
+          in.read();
+          continue;
+        }
+        String key = in.readString();
+        in.skipWhitespace();
+        in.expect(':');
+        String value = in.skipWhitespace() == '"' ? in.readString() : in.readLiteral();
+        switch (key) {
+          case "p1":
+            p1 = value;
+            break;
+          case "operator":
+            operation = value;
+            break;
+          case "p2":
+            p2 = value;
+            break;
+          case "answer":
+            answer = value;
+            break;
+          default:
+            // Ignored, e.g. "correct", which is graded again.
+        }
+      }
+      in.read();
+      Equation sum = toEquation(p1, operation, p2, answer);
+      if (sum != null) {
+        return sum;
+      }
+    }
+  }
+
+  /**
+   * Returns the equation with the given fields, or null if they do not form a valid equation.
+   */
+  private static Equation toEquation(String p1, String operation, String p2, String answer) {
+    if (p1 == null || operation == null || p2 == null || answer == null) {
+      return null;
+    }
+    try {
+      long answerValue = Long.parseLong(answer.trim());
+      if (answerValue < Short.MIN_VALUE || answerValue > Short.MAX_VALUE) {
+        return null;
+      }
+      Equation sum = new Equation(Integer.parseInt(p1.trim()), operation.trim(),
+          Integer.parseInt(p2.trim()), (int) answerValue);
+      // Questions the app never asks would be dropped as corrupt when read back.
+      return Equation.isValid(sum.encode()) ? sum : null;
+    } catch (IllegalArgumentException e) {
+      // Includes NumberFormatException.
+      return null;
+    }
+  }
+
+  /**
+   * Reads characters through a buffer of {@link #BUFFER_SIZE}, with one character of lookahead.
+   */
+  private static final class TextReader {
+    private final Reader mReader;
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    private final StringBuilder mToken = new StringBuilder();
+    private int mPosition;
+    private int mLimit;
+
+    TextReader(Reader reader) {
+      mReader = reader;
+    }
+
+    /**
+     * Returns the next character without consuming it, or -1 at the end.
+     */
+    int peek() throws IOException {
+      if (mPosition == mLimit) {
+        mPosition = 0;
+        mLimit = Math.max(0, mReader.read(mBuffer, 0, mBuffer.length));
+        if (mLimit == 0) {
+          return -1;
+        }
+      }
+      return mBuffer[mPosition];
+    }
+
+    /**
+     * Consumes and returns the next character, or -1 at the end.
+     */
+    int read() throws IOException {
+      int c = peek();
+      if (c >= 0) {
+        mPosition++;
+      }
+      return c;
+    }
+
+    /**
+     * Consumes whitespace and returns the next character without consuming it, or -1 at the end.
+     */
+    int skipWhitespace() throws IOException {
+      int c;
+      while ((c = peek()) >= 0 && Character.isWhitespace(c)) {
+        mPosition++;
+      }
+      return c;
+    }
+
+    void expect(char expected) throws IOException {
+      int c = read();
+      if (c != expected) {
+        throw new IOException("Malformed JSON: expected '" + expected + "' but found "
+            + (c < 0 ? "the end of the file" : "'" + (char) c + "'"));
+      }
+    }
+
+    /**
+     * Returns the next line without its terminator, or null at the end.
+     */
+    String readLine() throws IOException {
+      if (peek() < 0) {
+        return null;
+      }
+      mToken.setLength(0);
+      int c;
+      while ((c = read()) >= 0 && c != '\n') {
+        if (c != '\r') {
+          mToken.append((char) c);
+        }
+      }
+      return mToken.toString();
+    }
+
+    /**
+     * Returns the JSON string starting at the next character, unescaped.
+     */
+    String readString() throws IOException {
+      expect('"');
+      mToken.setLength(0);
+      int c;
+      while ((c = read()) != '"') {
+        if (c < 0) {
+          throw new IOException("Malformed JSON: unterminated string");
+        }
+        if (c == '\\') {
+          c = read();
+          switch (c) {
+            case 'b':
+              c = '\b';
+              break;
+            case 'f':
+              c = '\f';
+              break;
+            case 'n':
+              c = '\n';
+              break;
+            case 'r':
+              c = '\r';
+              break;
+            case 't':
+              c = '\t';
+              break;
+            case 'u':
+              c = 0;
+              for (int i = 0; i < 4; i++) {
+                int digit = Character.digit(read(), 16);
+                if (digit < 0) {
+                  throw new IOException("Malformed JSON: invalid escape");
+                }
+                c = c * 16 + digit;
+              }
+              break;
+            default:
+              if (c < 0) {
+                throw new IOException("Malformed JSON: unterminated string");
+              }
+              // '"', '\\' and '/' stand for themselves.
+          }
+        }
+        mToken.append((char) c);
+      }
+      return mToken.toString();
+    }
+
+    /**
+     * Returns the number, boolean or null starting at the next character, as written.
+     */
+    String readLiteral() throws IOException {
+      mToken.setLength(0);
+      int c;
+      while ((c = peek()) >= 0 && c != ',' && c != '}' && c != ']'
+          && !Character.isWhitespace(c)) {
+        if (c == '{' || c == '[') {
+          throw new IOException("Malformed JSON: nested values are not supported");
+        }
+        mToken.append((char) c);
+        mPosition++;
+      }
+      return mToken.toString();
+    }
+  }
+}
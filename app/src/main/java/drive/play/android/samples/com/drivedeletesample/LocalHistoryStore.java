@@ -0,0 +1,559 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-device copy of the answered {@link Equation}s, kept in an app-private file in the
+ * {@link EquationCodec} format so the history can be shown before Drive is reachable.
+ *
+ * <p>The store also remembers how many of its equations, counted from the oldest, are known to be
+ * in the App Data file. Equations beyond that count have been submitted but not synced yet.
+ *
+ * <p>The store may hold only the newest part of a long history read from App Data; the older
+ * equations are added with {@link #addOlder} when they are needed. Equations are therefore
+ * indexed by their position in the whole history, so that indices do not change when older
+ * equations are added: the oldest stored equation has index {@link #getFirstIndex()}.
+ *
+ * <p>{@link AccuracyStats} of the stored equations are kept up to date in a side file, so they
+ * can be shown without reading the history. The side file records how many equations it covers;
+ * if that is not the number stored, e.g. because the process died between the two writes, the
+ * statistics are rebuilt from the history once.
+ *
+ * <p>The synced equations are merged from the device logs in App Data; the {@link LogMirror} they
+ * were merged from is kept in another side file, written together with them, so that later loads
+ * only download what the logs have gained since. Only its {@link LogMirror.Summary} is held in
+ * memory; entries the logs gained are appended to the side file.
+ */
+class LocalHistoryStore {
+  private static final String SUMS_FILE = "sums.bin";
+  private static final String SYNCED_FILE = "sums.synced";
+  private static final String STATS_FILE = "sums.stats";
+  private static final String LOGS_FILE = "sums.logs";
+
+  /**
+   * A contiguous range of stored equations.
+   */
+  static class Page {
+    /** Equations in the range packed with {@link Equation#encode()}, oldest first. */
+    final int[] records;
+    /** Index of the oldest equation in the range. */
+    final int start;
+    /** Index after the newest equation in the range. */
+    final int end;
+    /** {@link #getFirstIndex()} when the page was read. */
+    final int firstIndex;
+    /** {@link #getVersion()} of the store when the page was read. */
+    final int version;
+
+    Page(int[] records, int start, int end, int firstIndex, int version) {
+      this.records = records;
+      this.start = start;
+      this.end = end;
+      this.firstIndex = firstIndex;
+      this.version = version;
+    }
+  }
+
+  private final File mSumsFile;
+  private final File mSyncedFile;
+  private final File mStatsFile;
+  private final File mLogsFile;
+
+  /** Number of equations in {@link #mSumsFile}, or -1 if it has not been read yet. */
+  private int mCount = -1;
+  private int mSyncedCount = -1;
+  /** Index of the oldest equation in {@link #mSumsFile}, or -1 if it has not been read yet. */
+  private int mFirstIndex = -1;
+
+  /** Statistics of the equations in {@link #mSumsFile}, or null if they have not been read yet. */
+  private AccuracyStats mStats;
+
+  /** Summary of the logs the synced equations were merged from, or null if not read yet. */
+  private LogMirror.Summary mLogSummary;
+
+  /**
+   * Incremented whenever stored equations are replaced or removed, which shifts their indices.
+   * Read without holding the store, see {@link #invalidate()}.
+   */
+  private final AtomicInteger mVersion = new AtomicInteger();
+
+  LocalHistoryStore(File directory) {
+    mSumsFile = new File(directory, SUMS_FILE);
+    mSyncedFile = new File(directory, SYNCED_FILE);
+    mStatsFile = new File(directory, STATS_FILE);
+    mLogsFile = new File(directory, LOGS_FILE);
+  }
+
+  /**
+   * Returns all stored equations, oldest first.
+   */
+  synchronized List<Equation> load() throws IOException {
+    ensureCount();
+    if (mCount == 0) {
+      return new ArrayList<>();
+    }
+
+    List<Equation> sums;
+    try (FileInputStream in = new FileInputStream(mSumsFile)) {
+      sums = EquationCodec.read(in);
+    }
+    return sums;
+  }
+
+  /**
+   * Reads up to {@code maxCount} equations stored before index {@code end}, i.e. the newest page
+   * of the stored history older than {@code end}. Only the records of the page are read from disk.
+   */
+  synchronized Page readPage(int end, int maxCount) throws IOException {
+    ensureCount();
+    int firstIndex = getFirstIndex();
+    end = Math.max(firstIndex, Math.min(end, firstIndex + mCount));
+    int start = Math.max(firstIndex, end - maxCount);
+    int[] records = new int[end - start];
+    int count = 0;
+    if (end > start) {
+      byte[] bytes = new byte[(end - start) * EquationCodec.RECORD_SIZE];
+      try (RandomAccessFile file = new RandomAccessFile(mSumsFile, "r")) {
+        file.seek(EquationCodec.HEADER_SIZE
+            + (long) (start - firstIndex) * EquationCodec.RECORD_SIZE);
+        file.readFully(bytes);
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      while (buffer.hasRemaining()) {
+        int record = buffer.getInt();
+        // Skip corrupt records but keep the rest of the page.
+        if (Equation.isValid(record)) {
+          records[count++] = record;
+        }
+      }
+    }
+    if (count < records.length) {
+      records = Arrays.copyOf(records, count);
+    }
+    return new Page(records, start, end, firstIndex, mVersion.get());
+  }
+
+  /**
+   * Returns a number that changes whenever the index of a stored equation changes, i.e. whenever
+   * stored equations are replaced or removed.
+   */
+  int getVersion() {
+    return mVersion.get();
+  }
+
+  /**
+   * Changes {@link #getVersion()} right away, without waiting for a call that holds the store, so
+   * that writes checked against an earlier version are dropped until {@link #clear()} runs.
+   */
+  void invalidate() {
+    mVersion.incrementAndGet();
+  }
+
+  /**
+   * Appends {@code equation} as the newest stored equation.
+   *
+   * @return the index of {@code equation} in the store.
+   */
+  synchronized int append(Equation equation) throws IOException {
+    return appendAll(Collections.singletonList(equation));
+  }
+
+  /**
+   * Appends {@code equations}, oldest first, as the newest stored equations in a single write.
+   *
+   * @return the index of the newest of them in the store.
+   */
+  synchronized int appendAll(List<Equation> equations) throws IOException {
+    ensureStats();
+    // Encoded first, so that an equation that cannot be encoded leaves the store unchanged.
+    int[] records = new int[equations.size()];
+    for (int i = 0; i < records.length; i++) {
+      records[i] = equations.get(i).encode();
+    }
+    boolean newFile = mSumsFile.length() < EquationCodec.HEADER_SIZE;
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(mSumsFile, /* append= */ !newFile)))) {
+      if (newFile) {
+        out.write(EquationCodec.header());
+      }
+      for (int record : records) {
+        out.writeInt(record);
+      }
+    }
+    mCount = (newFile ? 0 : mCount) + records.length;
+    if (newFile) {
+      mStats = new AccuracyStats();
+    }
+    for (Equation equation : equations) {
+      mStats.add(equation);
+    }
+    if (newFile) {
+      writeStatsQuietly();
+    } else {
+      updateStatsQuietly();
+    }
+    return getFirstIndex() + mCount - 1;
+  }
+
+  /**
+   * Returns the statistics of the stored equations.
+   */
+  synchronized AccuracyStats getStats() throws IOException {
+    ensureStats();
+    return mStats.copy();
+  }
+
+  /**
+   * Returns the equations that have been stored but not synced yet, oldest first.
+   */
+  synchronized List<Equation> loadUnsynced() throws IOException {
+    List<Equation> sums = load();
+    int synced = Math.min(getSyncedCount(), sums.size());
+    return new ArrayList<>(sums.subList(synced, sums.size()));
+  }
+
+  /**
+   * Returns how many of the oldest stored equations are known to be in the App Data file.
+   */
+  synchronized int getSyncedCount() throws IOException {
+    ensureSyncState();
+    return mSyncedCount;
+  }
+
+  /**
+   * Returns the index in the whole history of the oldest stored equation, i.e. the number of
+   * older equations that are only in App Data.
+   */
+  synchronized int getFirstIndex() throws IOException {
+    ensureSyncState();
+    return mFirstIndex;
+  }
+
+  /**
+   * Records that the {@code count} oldest unsynced equations have been written to App Data. Does
+   * nothing if the store has been cleared or replaced since {@link #getVersion()} returned
+   * {@code version}, e.g. by a reset while the equations were written.
+   */
+  synchronized void addSynced(int count, int version) throws IOException {
+    if (version != mVersion.get()) {
+      return;
+    }
+    ensureCount();
+    writeSyncState(Math.min(getSyncedCount() + count, mCount), getFirstIndex());
+  }
+
+  /**
+   * Returns the summary of the mirror of the logs the synced equations were merged from.
+   */
+  synchronized LogMirror.Summary getLogSummary() throws IOException {
+    if (mLogSummary == null) {
+      mLogSummary = LogMirror.Summary.EMPTY;
+      if (mLogsFile.exists()) {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(mLogsFile))) {
+          LogMirror.Summary summary = LogMirror.readSummary(in);
+          if (summary != null) {
+            mLogSummary = summary;
+          }
+        }
+        if (mLogSummary == LogMirror.Summary.EMPTY) {
+          // Incomplete, e.g. an update cut off by process death; updates must not follow it.
+          mLogsFile.delete();
+        }
+      }
+    }
+    return mLogSummary;
+  }
+
+  /**
+   * Reads the whole mirror of the logs the synced equations were merged from. It is not kept in
+   * memory, so only reads that need the copied entries should use it.
+   */
+  synchronized LogMirror readLogMirror() throws IOException {
+    if (mLogsFile.exists()) {
+      try (InputStream in = new BufferedInputStream(new FileInputStream(mLogsFile))) {
+        LogMirror mirror = LogMirror.read(in);
+        if (mirror != null) {
+          return mirror;
+        }
+      }
+    }
+    return LogMirror.EMPTY;
+  }
+
+  /**
+   * Replaces all synced equations with {@code remoteSums}, the current contents of App Data from
+   * index {@code firstIndex}, oldest first, merged from {@code mirror}. Unsynced equations are
+   * kept after them.
+   *
+   * @return false, without changing anything, if the store has been cleared or replaced since
+   *     {@link #getVersion()} returned {@code version}.
+   */
+  synchronized boolean replaceSynced(
+      int firstIndex, List<Equation> remoteSums, LogMirror mirror, int version)
+      throws IOException {
+    if (version != mVersion.get()) {
+      return false;
+    }
+    List<Equation> stored = load();
+    int synced = Math.min(getSyncedCount(), stored.size());
+    List<Equation> sums = new ArrayList<>(remoteSums);
+    sums.addAll(stored.subList(synced, stored.size()));
+    writeLogMirror(mirror);
+    writeSums(sums);
+    mVersion.incrementAndGet();
+    mStats = AccuracyStats.of(sums);
+    writeStatsQuietly();
+    writeSyncState(remoteSums.size(), firstIndex);
+    return true;
+  }
+
+  /**
+   * Adds the equations of {@code appended} as the newest synced equations after the
+   * {@link LogMirror.Appended#start} stored ones, and the entries the logs gained to the mirror,
+   * without rewriting either. Cheaper than {@link #replaceSynced} when App Data only gained newer
+   * equations.
+   *
+   * @return false, without changing anything, if the store has been cleared or replaced since
+   *     {@link #getVersion()} returned {@code version}, or does not hold exactly
+   *     {@link LogMirror.Appended#start} equations, all synced.
+   */
+  synchronized boolean appendSynced(LogMirror.Appended appended, int version)
+      throws IOException {
+    ensureCount();
+    int start = appended.start;
+    if (version != mVersion.get() || getSyncedCount() != start || mCount != start) {
+      return false;
+    }
+    appendLogMirror(appended.summary, appended.gained);
+    if (!appended.sums.isEmpty()) {
+      appendAll(appended.sums);
+    }
+    writeSyncState(start + appended.sums.size(), getFirstIndex());
+    return true;
+  }
+
+  /**
+   * Adds {@code olderSums}, read from App Data, before the oldest stored equation; they are the
+   * equations with indices {@code firstIndex} up to {@link #getFirstIndex()}, merged from
+   * {@code mirror}. Indices of stored equations do not change, so neither does
+   * {@link #getVersion()}.
+   *
+   * @return false, without changing anything, if the store has been cleared or replaced since
+   *     {@link #getVersion()} returned {@code version}, or does not start after
+   *     {@code olderSums}.
+   */
+  synchronized boolean addOlder(
+      int firstIndex, List<Equation> olderSums, LogMirror mirror, int version)
+      throws IOException {
+    if (version != mVersion.get() || firstIndex + olderSums.size() != getFirstIndex()) {
+      return false;
+    }
+    writeLogMirror(mirror);
+    List<Equation> sums = new ArrayList<>(olderSums);
+    sums.addAll(load());
+    writeSums(sums);
+    mStats = AccuracyStats.of(sums);
+    writeStatsQuietly();
+    writeSyncState(getSyncedCount() + olderSums.size(), firstIndex);
+    return true;
+  }
+
+  /**
+   * Removes all stored equations.
+   */
+  synchronized void clear() {
+    mSumsFile.delete();
+    mSyncedFile.delete();
+    mStatsFile.delete();
+    mLogsFile.delete();
+    mCount = 0;
+    mSyncedCount = 0;
+    mFirstIndex = 0;
+    mStats = new AccuracyStats();
+    mLogSummary = LogMirror.Summary.EMPTY;
+    mVersion.incrementAndGet();
+  }
+
+  private void ensureCount() throws IOException {
+    if (mCount >= 0) {
+      return;
+    }
+    // An append interrupted by process death may leave a partial record; drop it so that the
+    // next append stays aligned.
+    long length = mSumsFile.length();
+    long records = Math.max(0, length - EquationCodec.HEADER_SIZE) / EquationCodec.RECORD_SIZE;
+    long aligned = length < EquationCodec.HEADER_SIZE
+        ? 0 : EquationCodec.HEADER_SIZE + records * EquationCodec.RECORD_SIZE;
+    if (aligned != length) {
+      try (RandomAccessFile file = new RandomAccessFile(mSumsFile, "rw")) {
+        file.setLength(aligned);
+      }
+    }
+    mCount = (int) records;
+  }
+
+  private void ensureStats() throws IOException {
+    if (mStats != null) {
+      return;
+    }
+    ensureCount();
+    if (mStatsFile.exists()) {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(mStatsFile)))) {
+        if (in.readInt() == mCount) {
+          mStats = AccuracyStats.read(in);
+        }
+      } catch (EOFException e) {
+        // Truncated; rebuilt below.
+      }
+    }
+    if (mStats == null) {
+      mStats = AccuracyStats.of(load());
+      writeStatsQuietly();
+    }
+  }
+
+  /**
+   * Writes {@link #mStats} to the side file. A failure is not reported: the side file then
+   * records a different number of equations than the store, so it is rebuilt when next read.
+   */
+  private void writeStatsQuietly() {
+    File tempFile = new File(mStatsFile.getPath() + ".tmp");
+    try {
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+        out.writeInt(mCount);
+        mStats.write(out);
+      }
+      if (!tempFile.renameTo(mStatsFile)) {
+        mStatsFile.delete();
+      }
+    } catch (IOException e) {
+      mStatsFile.delete();
+    }
+  }
+
+  /**
+   * Overwrites the side file with {@link #mStats} in place, which is cheaper than
+   * {@link #writeStatsQuietly()} for the small change of an append. The number of equations is
+   * written last, so that a side file left half written by process death is rebuilt.
+   */
+  private void updateStatsQuietly() {
+    try (RandomAccessFile file = new RandomAccessFile(mStatsFile, "rw")) {
+      ByteArrayOutputStream stats = new ByteArrayOutputStream();
+      mStats.write(stats);
+      file.seek(4);
+      file.write(stats.toByteArray());
+      file.seek(0);
+      file.writeInt(mCount);
+    } catch (IOException e) {
+      mStatsFile.delete();
+    }
+  }
+
+  private void writeSums(List<Equation> sums) throws IOException {
+    File tempFile = new File(mSumsFile.getPath() + ".tmp");
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+      EquationCodec.write(out, sums);
+    }
+    if (!tempFile.renameTo(mSumsFile)) {
+      throw new IOException("Unable to replace " + mSumsFile);
+    }
+    mCount = sums.size();
+  }
+
+  private void writeLogMirror(LogMirror mirror) throws IOException {
+    File tempFile = new File(mLogsFile.getPath() + ".tmp");
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+      mirror.write(out);
+    }
+    if (!tempFile.renameTo(mLogsFile)) {
+      throw new IOException("Unable to replace " + mLogsFile);
+    }
+    mLogSummary = mirror.summarize();
+  }
+
+  /**
+   * Appends the entries {@code gained} by the logs to the mirror side file, as an update to
+   * {@code summary}.
+   */
+  private void appendLogMirror(LogMirror.Summary summary, List<LogMirror.Log> gained)
+      throws IOException {
+    boolean newFile = mLogsFile.length() == 0;
+    try (OutputStream out =
+        new BufferedOutputStream(new FileOutputStream(mLogsFile, /* append= */ !newFile))) {
+      if (newFile) {
+        LogMirror.writeHeader(out);
+      }
+      summary.writeUpdate(out, gained);
+    } catch (IOException e) {
+      // A partial update would be followed by the next; the mirror is downloaded again instead.
+      mLogsFile.delete();
+      mLogSummary = null;
+      throw e;
+    }
+    mLogSummary = summary;
+  }
+
+  private void ensureSyncState() throws IOException {
+    if (mSyncedCount >= 0) {
+      return;
+    }
+    mSyncedCount = 0;
+    mFirstIndex = 0;
+    if (mSyncedFile.exists()) {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(mSyncedFile)))) {
+        mSyncedCount = in.readInt();
+        mFirstIndex = in.readInt();
+      }
+    }
+  }
+
+  private void writeSyncState(int syncedCount, int firstIndex) throws IOException {
+    File tempFile = new File(mSyncedFile.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tempFile))) {
+      out.writeInt(syncedCount);
+      out.writeInt(firstIndex);
+    }
+    if (!tempFile.renameTo(mSyncedFile)) {
+      throw new IOException("Unable to replace " + mSyncedFile);
+    }
+    mSyncedCount = syncedCount;
+    mFirstIndex = firstIndex;
+  }
+}
@@ -0,0 +1,792 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * On-device copy of the newest part of every device log in App Data, from which
+ * {@link AppDataSync} merges the history. Each device appends only to its own log; the history
+ * is all log entries ordered by their key: the time they were written, then the device id, the
+ * log id and the position in the log. Every reader therefore merges the same logs into the same
+ * history, and the entries of one device stay in the order they were written.
+ *
+ * <p>A log may be copied only from entry {@link Log#first}. The history then starts at the
+ * cutoff, the largest key of the oldest copied entry of such a log; older entries of the other
+ * logs are kept, but are not part of the history until the logs are extended past the cutoff.
+ *
+ * <p>{@link LocalHistoryStore} keeps the mirror in a side file, and only its {@link Summary} in
+ * memory. The file starts with the magic bytes {@code "SMLM"} and a version byte, followed by
+ * updates. Each update starts with the byte {@code 'U'}, the number of equations in the history,
+ * whether it has a newest entry and, if so, that entry, its device id, log id and index. Then
+ * follow the number of logs and, per log, its file id, device id, whether it is segmented, its
+ * revision, first and end entry index, first entry, the number of entries it gained and those
+ * entries, which end at the end index. The first update has all entries; loads that only gain
+ * newer entries append an update. Instances are immutable.
+ */
+final class LogMirror {
+  static final int VERSION = 1;
+
+  static final LogMirror EMPTY = new LogMirror(new ArrayList<Log>());
+
+  private static final byte[] MAGIC = {'S', 'M', 'L', 'M'};
+  private static final int UPDATE = 'U';
+
+  /**
+   * Copied entries of one device log.
+   */
+  static final class Log {
+    /** File id of the log's {@link SegmentManifest}, or of a legacy single file. */
+    final String id;
+    /** Id of the device writing the log, or "" for a legacy single file. */
+    final String deviceId;
+    /** Whether the log is listed by a manifest, rather than a legacy single file. */
+    final boolean segmented;
+    /** Revision of the log the entries were copied from. */
+    final String revision;
+    /** Index in the log of the first of {@link #entries}. */
+    final int first;
+    /** Copied {@link EquationCodec#logEntry log entries}, oldest first. */
+    final long[] entries;
+
+    Log(String id, String deviceId, boolean segmented, String revision, int first,
+        long[] entries) {
+      this.id = id;
+      this.deviceId = deviceId;
+      this.segmented = segmented;
+      this.revision = revision;
+      this.first = first;
+      this.entries = entries;
+    }
+
+    /**
+     * Returns the index in the log after the newest copied entry.
+     */
+    int end() {
+      return first + entries.length;
+    }
+  }
+
+  /**
+   * Where the copy of one device log starts and ends, without its entries.
+   */
+  static final class LogEnd {
+    /** File id of the log's {@link SegmentManifest}, or of a legacy single file. */
+    final String id;
+    /** Id of the device writing the log, or "" for a legacy single file. */
+    final String deviceId;
+    /** Whether the log is listed by a manifest, rather than a legacy single file. */
+    final boolean segmented;
+    /** Revision of the log the entries were copied from. */
+    final String revision;
+    /** Index in the log of the oldest copied entry. */
+    final int first;
+    /** Index in the log after the newest copied entry. */
+    final int end;
+    /** The oldest copied entry, or 0 if none is copied. */
+    final long firstEntry;
+
+    LogEnd(String id, String deviceId, boolean segmented, String revision, int first, int end,
+        long firstEntry) {
+      this.id = id;
+      this.deviceId = deviceId;
+      this.segmented = segmented;
+      this.revision = revision;
+      this.first = first;
+      this.end = end;
+      this.firstEntry = firstEntry;
+    }
+
+    Key firstKey() {
+      return new Key(firstEntry, deviceId, id, first);
+    }
+  }
+
+  /**
+   * Key of a log entry, which orders the history.
+   */
+  static final class Key implements Comparable<Key> {
+    final long entry;
+    final String deviceId;
+    final String logId;
+    final int index;
+
+    Key(long entry, String deviceId, String logId, int index) {
+      this.entry = entry;
+      this.deviceId = deviceId;
+      this.logId = logId;
+      this.index = index;
+    }
+
+    @Override
+    public int compareTo(Key other) {
+      return compareKeys(entry, deviceId, logId, index,
+          other.entry, other.deviceId, other.logId, other.index);
+    }
+  }
+
+  /**
+   * What is kept in memory of a mirror: where the copy of each log ends and the newest entry of
+   * the history, which is all {@link #mergeAppended} needs. Instances are immutable.
+   */
+  static final class Summary {
+    static final Summary EMPTY = new Summary(new ArrayList<LogEnd>(), 0, null);
+
+    /** The copied logs. */
+    final List<LogEnd> logs;
+    /** Number of equations in the history, i.e. of its valid entries. */
+    final int count;
+    /** Key of the newest entry of the history, or null if it has none. */
+    final Key newest;
+
+    Summary(List<LogEnd> logs, int count, Key newest) {
+      this.logs = Collections.unmodifiableList(new ArrayList<>(logs));
+      this.count = count;
+      this.newest = newest;
+    }
+
+    /**
+     * Returns the log whose oldest copied entry has the cutoff key, or null if every log is copied
+     * from its start.
+     */
+    LogEnd getCutoffLog() {
+      return cutoffLogOf(logs);
+    }
+
+    LogEnd findLog(String id) {
+      for (LogEnd log : logs) {
+        if (log.id.equals(id)) {
+          return log;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Returns the entries {@code logs} gained since this summary, if they only extend its history
+     * at the newest end: every gained entry must sort after that history. Each of {@code logs} is
+     * read from App Data from entry {@link Log#first}, which must not be past the end of its copy.
+     * The gained entries of the log {@code storedLogId}, which the device has already stored after
+     * that history as it wrote them, must sort before those of the other logs; they are counted in
+     * {@link Appended#start} rather than returned. Only the gained entries are looked at.
+     *
+     * @return the equations to add, or null if the history has to be merged again with
+     *     {@link LogMirror#merge()}, e.g. because a log was removed, the cutoff moved or a gained
+     *     entry sorts before an entry of the history.
+     */
+    Appended mergeAppended(List<Log> logs, String storedLogId) {
+      List<LogEnd> ends = new ArrayList<>(logs.size());
+      List<Log> gainedLogs = new ArrayList<>(logs.size());
+      int kept = 0;
+      for (Log log : logs) {
+        LogEnd previous = findLog(log.id);
+        int first = log.first;
+        int from = log.first;
+        long firstEntry = log.entries.length > 0 ? log.entries[0] : 0;
+        if (previous != null) {
+          if (log.first < previous.first || log.first > previous.end
+              || log.end() < previous.end) {
+            return null;
+          }
+          first = previous.first;
+          from = previous.end;
+          firstEntry = previous.end > previous.first ? previous.firstEntry
+              : log.end() > first ? log.entries[first - log.first] : 0;
+          kept++;
+        }
+        ends.add(new LogEnd(
+            log.id, log.deviceId, log.segmented, log.revision, first, log.end(), firstEntry));
+        gainedLogs.add(new Log(log.id, log.deviceId, log.segmented, log.revision, from,
+            Arrays.copyOfRange(log.entries, from - log.first, log.entries.length)));
+      }
+      LogEnd cutoffLog = cutoffLogOf(ends);
+      LogEnd previousCutoffLog = getCutoffLog();
+      if (kept != this.logs.size() || (cutoffLog == null ? previousCutoffLog != null
+          : previousCutoffLog == null || !cutoffLog.id.equals(previousCutoffLog.id)
+              || cutoffLog.first != previousCutoffLog.first)) {
+        return null;
+      }
+
+      Key cutoff = cutoffLog == null ? null : cutoffLog.firstKey();
+      List<Key> gained = new ArrayList<>();
+      for (Log log : gainedLogs) {
+        for (int i = 0; i < log.entries.length; i++) {
+          Key key = new Key(log.entries[i], log.deviceId, log.id, log.first + i);
+          if (cutoff != null && key.compareTo(cutoff) < 0) {
+            // It would change the first index of the history.
+            return null;
+          }
+          gained.add(key);
+        }
+      }
+      Collections.sort(gained);
+      if (!gained.isEmpty() && newest != null && gained.get(0).compareTo(newest) < 0) {
+        return null;
+      }
+      int start = count;
+      int stored = 0;
+      while (stored < gained.size() && gained.get(stored).logId.equals(storedLogId)) {
+        start += isValid(gained.get(stored).entry) ? 1 : 0;
+        stored++;
+      }
+      List<Equation> sums = new ArrayList<>(gained.size() - stored);
+      for (Key key : gained.subList(stored, gained.size())) {
+        if (key.logId.equals(storedLogId)) {
+          return null;
+        }
+        if (isValid(key.entry)) {
+          sums.add(Equation.decode(EquationCodec.recordOf(key.entry)));
+        }
+      }
+      Key newestKey = gained.isEmpty() ? newest : gained.get(gained.size() - 1);
+      return new Appended(
+          start, sums, new Summary(ends, start + sums.size(), newestKey), gainedLogs);
+    }
+
+    /**
+     * Writes this summary as an update of the side file to {@code out}, with the entries of
+     * {@code logs}, without closing it. Each of {@code logs} must end where its copy ends.
+     */
+    void writeUpdate(OutputStream out, List<Log> logs) throws IOException {
+      DataOutputStream data = new DataOutputStream(out);
+      data.writeByte(UPDATE);
+      data.writeInt(count);
+      data.writeBoolean(newest != null);
+      if (newest != null) {
+        data.writeLong(newest.entry);
+        data.writeUTF(newest.deviceId);
+        data.writeUTF(newest.logId);
+        data.writeInt(newest.index);
+      }
+      data.writeInt(this.logs.size());
+      for (LogEnd end : this.logs) {
+        data.writeUTF(end.id);
+        data.writeUTF(end.deviceId);
+        data.writeBoolean(end.segmented);
+        data.writeUTF(end.revision);
+        data.writeInt(end.first);
+        data.writeInt(end.end);
+        data.writeLong(end.firstEntry);
+        long[] entries = new long[0];
+        for (Log log : logs) {
+          if (log.id.equals(end.id)) {
+            entries = log.entries;
+          }
+        }
+        data.writeInt(entries.length);
+        for (long entry : entries) {
+          data.writeLong(entry);
+        }
+      }
+      data.flush();
+    }
+  }
+
+  /**
+   * Equations that extend a history at its newest end, see {@link Summary#mergeAppended}.
+   */
+  static final class Appended {
+    /** Number of equations in the history before {@link #sums}. */
+    final int start;
+    /** The equations to add, oldest first. */
+    final List<Equation> sums;
+    /** Summary of the mirror the history is then merged from. */
+    final Summary summary;
+    /** The entries the logs gained, to add to the side file with {@link Summary#writeUpdate}. */
+    final List<Log> gained;
+
+    Appended(int start, List<Equation> sums, Summary summary, List<Log> gained) {
+      this.start = start;
+      this.sums = sums;
+      this.summary = summary;
+      this.gained = gained;
+    }
+  }
+
+  /**
+   * Reads the entries of a log that are older than its copied ones.
+   */
+  interface SegmentReader {
+    /**
+     * Returns the entries of the segment of {@code log} that starts at entry {@code start}, oldest
+     * first.
+     */
+    long[] read(Log log, int start) throws IOException;
+  }
+
+  /** Orders entries, given as the index of their log and their index in it, by key. */
+  private final Comparator<int[]> mKeyOrder = new Comparator<int[]>() {
+    @Override
+    public int compare(int[] ref, int[] otherRef) {
+      return compareKeys(mLogs.get(ref[0]), ref[1], mLogs.get(otherRef[0]), otherRef[1]);
+    }
+  };
+
+  private final List<Log> mLogs;
+
+  LogMirror(List<Log> logs) {
+    mLogs = Collections.unmodifiableList(new ArrayList<>(logs));
+  }
+
+  /**
+   * Returns the copied logs.
+   */
+  List<Log> getLogs() {
+    return mLogs;
+  }
+
+  /**
+   * Returns a mirror in which {@code log} replaces the log with the same id, or is added.
+   */
+  LogMirror with(Log log) {
+    List<Log> logs = new ArrayList<>(mLogs);
+    for (int i = 0; i < logs.size(); i++) {
+      if (logs.get(i).id.equals(log.id)) {
+        logs.set(i, log);
+        return new LogMirror(logs);
+      }
+    }
+    logs.add(log);
+    return new LogMirror(logs);
+  }
+
+  /**
+   * Returns the log whose oldest copied entry has the cutoff key, or null if every log is copied
+   * from its start, so that the history is complete.
+   */
+  Log getCutoffLog() {
+    Log cutoffLog = null;
+    for (Log log : mLogs) {
+      if (log.first > 0 && (cutoffLog == null
+          || compareKeys(log, log.first, cutoffLog, cutoffLog.first) > 0)) {
+        cutoffLog = log;
+      }
+    }
+    return cutoffLog;
+  }
+
+  /**
+   * Returns the index in the whole history of the oldest merged entry, i.e. the number of
+   * entries, copied or not, with a key before the cutoff.
+   */
+  int getFirstIndex() {
+    Log cutoffLog = getCutoffLog();
+    if (cutoffLog == null) {
+      return 0;
+    }
+    int firstIndex = 0;
+    for (Log log : mLogs) {
+      int index = log.first;
+      while (index < log.end() && compareKeys(log, index, cutoffLog, cutoffLog.first) < 0) {
+        index++;
+      }
+      firstIndex += index;
+    }
+    return firstIndex;
+  }
+
+  /**
+   * Returns the merged history from the cutoff, oldest first. Corrupt entries are skipped.
+   */
+  List<Equation> merge() {
+    return mergeUntil(null);
+  }
+
+  /**
+   * Returns the merged history from the cutoff of this mirror up to the cutoff of
+   * {@code previous}, the mirror this one was extended from, oldest first.
+   */
+  List<Equation> mergeUntil(LogMirror previous) {
+    Log from = getCutoffLog();
+    Log to = previous == null ? null : previous.getCutoffLog();
+    List<int[]> refs = new ArrayList<>();
+    for (int i = 0; i < mLogs.size(); i++) {
+      Log log = mLogs.get(i);
+      for (int index = log.first; index < log.end(); index++) {
+        if ((from == null || compareKeys(log, index, from, from.first) >= 0)
+            && (to == null || compareKeys(log, index, to, to.first) < 0)) {
+          refs.add(new int[] {i, index});
+        }
+      }
+    }
+    Collections.sort(refs, mKeyOrder);
+    return decode(refs);
+  }
+
+  /**
+   * Writes the records of the history before the cutoff, whose entries are not merged, to
+   * {@code sink}, oldest first. Entries that are not copied are read with {@code reader}, one
+   * segment per log at a time, so only those segments are held besides this mirror. Corrupt
+   * entries are skipped.
+   */
+  void mergeOlder(SegmentReader reader, HistoryTransfer.RecordSink sink) throws IOException {
+    Log cutoffLog = getCutoffLog();
+    if (cutoffLog == null) {
+      return;
+    }
+    List<Cursor> cursors = new ArrayList<>(mLogs.size());
+    for (Log log : mLogs) {
+      cursors.add(new Cursor(log, reader));
+    }
+    long cutoff = cutoffLog.entries[0];
+    while (true) {
+      // Entries of one log are in key order, so the oldest entry is the oldest of the cursors.
+      Cursor oldest = null;
+      for (Cursor cursor : cursors) {
+        if (cursor.index < cursor.log.end() && (oldest == null || compareKeys(cursor.entry(),
+            cursor.log, cursor.index, oldest.entry(), oldest.log, oldest.index) < 0)) {
+          oldest = cursor;
+        }
+      }
+      if (oldest == null || compareKeys(oldest.entry(), oldest.log, oldest.index,
+          cutoff, cutoffLog, cutoffLog.first) >= 0) {
+        return;
+      }
+      int record = EquationCodec.recordOf(oldest.entry());
+      if (Equation.isValid(record)) {
+        sink.write(record);
+      }
+      oldest.advance();
+    }
+  }
+
+  /**
+   * Returns the mirror of {@code logs}, each read from App Data from entry {@link Log#first}, with
+   * the entries this mirror has copied before those of a log, if they adjoin them. Logs that are
+   * not in {@code logs} are left out.
+   */
+  LogMirror extend(List<Log> logs) {
+    List<Log> extended = new ArrayList<>(logs.size());
+    for (Log log : logs) {
+      Log copied = findLog(log.id);
+      if (copied == null || log.first <= copied.first || log.first > copied.end()) {
+        extended.add(log);
+        continue;
+      }
+      long[] entries = Arrays.copyOf(copied.entries, log.first - copied.first + log.entries.length);
+      System.arraycopy(log.entries, 0, entries, log.first - copied.first, log.entries.length);
+      extended.add(new Log(
+          log.id, log.deviceId, log.segmented, log.revision, copied.first, entries));
+    }
+    return new LogMirror(extended);
+  }
+
+  /**
+   * Returns the summary of this mirror.
+   */
+  Summary summarize() {
+    Log cutoffLog = getCutoffLog();
+    List<LogEnd> ends = new ArrayList<>(mLogs.size());
+    int count = 0;
+    Key newest = null;
+    for (Log log : mLogs) {
+      long firstEntry = log.entries.length > 0 ? log.entries[0] : 0;
+      ends.add(new LogEnd(
+          log.id, log.deviceId, log.segmented, log.revision, log.first, log.end(), firstEntry));
+      for (int index = log.first; index < log.end(); index++) {
+        if (cutoffLog == null || compareKeys(log, index, cutoffLog, cutoffLog.first) >= 0) {
+          count += isValid(log.entries[index - log.first]) ? 1 : 0;
+        }
+      }
+      // Entries of one log are in key order, so its newest entry is its last.
+      if (log.entries.length > 0 && (cutoffLog == null
+          || compareKeys(log, log.end() - 1, cutoffLog, cutoffLog.first) >= 0)) {
+        Key key = new Key(log.entries[log.entries.length - 1], log.deviceId, log.id, log.end() - 1);
+        if (newest == null || key.compareTo(newest) > 0) {
+          newest = key;
+        }
+      }
+    }
+    return new Summary(ends, count, newest);
+  }
+
+  /**
+   * Writes the start of a side file to {@code out}, without closing it. Updates follow.
+   */
+  static void writeHeader(OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    data.write(MAGIC);
+    data.writeByte(VERSION);
+    data.flush();
+  }
+
+  /**
+   * Writes this mirror as a whole side file to {@code out}, without closing it.
+   */
+  void write(OutputStream out) throws IOException {
+    writeHeader(out);
+    summarize().writeUpdate(out, mLogs);
+  }
+
+  /**
+   * Reads the mirror in a side file written by {@link #write} and {@link Summary#writeUpdate}.
+   *
+   * @return the mirror, or null if {@code in} does not hold a complete mirror.
+   */
+  static LogMirror read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    if (!readHeader(data)) {
+      return null;
+    }
+    // Entries are collected per log in growing arrays, as each update adds a few of them.
+    List<Log> logs = new ArrayList<>();
+    int[] sizes = new int[0];
+    try {
+      int marker;
+      while ((marker = data.read()) == UPDATE) {
+        readUpdateHead(data);
+        int size = data.readInt();
+        List<Log> updated = new ArrayList<>(size);
+        int[] updatedSizes = new int[size];
+        for (int i = 0; i < size; i++) {
+          LogEnd end = readLogEnd(data);
+          long[] gained = new long[data.readInt()];
+          for (int j = 0; j < gained.length; j++) {
+            gained[j] = data.readLong();
+          }
+          long[] entries = gained;
+          int kept = end.end - end.first - gained.length;
+          if (kept > 0) {
+            int previous = indexOf(logs, end.id);
+            if (previous < 0 || logs.get(previous).first != end.first
+                || sizes[previous] != kept) {
+              return null;
+            }
+            entries = logs.get(previous).entries;
+            if (entries.length < kept + gained.length) {
+              entries = Arrays.copyOf(entries, Math.max(2 * entries.length, kept + gained.length));
+            }
+            System.arraycopy(gained, 0, entries, kept, gained.length);
+          } else if (kept < 0) {
+            return null;
+          }
+          updated.add(new Log(end.id, end.deviceId, end.segmented, end.revision, end.first,
+              entries));
+          updatedSizes[i] = kept + gained.length;
+        }
+        logs = updated;
+        sizes = updatedSizes;
+      }
+      if (marker >= 0) {
+        return null;
+      }
+    } catch (EOFException e) {
+      return null;
+    }
+    for (int i = 0; i < logs.size(); i++) {
+      Log log = logs.get(i);
+      logs.set(i, new Log(log.id, log.deviceId, log.segmented, log.revision, log.first,
+          Arrays.copyOf(log.entries, sizes[i])));
+    }
+    return new LogMirror(logs);
+  }
+
+  /**
+   * Reads the summary of the mirror in a side file written by {@link #write} and
+   * {@link Summary#writeUpdate}, skipping the entries.
+   *
+   * @return the summary, or null if {@code in} does not hold a complete mirror.
+   */
+  static Summary readSummary(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    if (!readHeader(data)) {
+      return null;
+    }
+    Summary summary = Summary.EMPTY;
+    try {
+      int marker;
+      while ((marker = data.read()) == UPDATE) {
+        Summary head = readUpdateHead(data);
+        List<LogEnd> logs = new ArrayList<>();
+        int size = data.readInt();
+        for (int i = 0; i < size; i++) {
+          logs.add(readLogEnd(data));
+          int gained = data.readInt();
+          if (data.skipBytes(8 * gained) != 8 * gained) {
+            return null;
+          }
+        }
+        summary = new Summary(logs, head.count, head.newest);
+      }
+      return marker < 0 ? summary : null;
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  private static boolean readHeader(DataInputStream data) throws IOException {
+    byte[] magic = new byte[MAGIC.length];
+    try {
+      data.readFully(magic);
+      return Arrays.equals(magic, MAGIC) && data.readUnsignedByte() == VERSION;
+    } catch (EOFException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Reads the count and newest entry of an update, returned as a summary without logs.
+   */
+  private static Summary readUpdateHead(DataInputStream data) throws IOException {
+    int count = data.readInt();
+    Key newest = null;
+    if (data.readBoolean()) {
+      newest = new Key(data.readLong(), data.readUTF(), data.readUTF(), data.readInt());
+    }
+    return new Summary(new ArrayList<LogEnd>(), count, newest);
+  }
+
+  private static LogEnd readLogEnd(DataInputStream data) throws IOException {
+    return new LogEnd(data.readUTF(), data.readUTF(), data.readBoolean(), data.readUTF(),
+        data.readInt(), data.readInt(), data.readLong());
+  }
+
+  private static int indexOf(List<Log> logs, String id) {
+    for (int i = 0; i < logs.size(); i++) {
+      if (logs.get(i).id.equals(id)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Position in a whole log, whose entries before the copied ones are read a segment at a time.
+   */
+  private static final class Cursor {
+    final Log log;
+    private final SegmentReader mReader;
+    private long[] mSegment = new long[0];
+    private int mSegmentStart;
+    int index;
+
+    Cursor(Log log, SegmentReader reader) throws IOException {
+      this.log = log;
+      mReader = reader;
+      readSegment();
+    }
+
+    long entry() {
+      return index >= log.first ? log.entries[index - log.first] : mSegment[index - mSegmentStart];
+    }
+
+    void advance() throws IOException {
+      index++;
+      readSegment();
+    }
+
+    private void readSegment() throws IOException {
+      if (index < log.first && index >= mSegmentStart + mSegment.length) {
+        mSegment = mReader.read(log, index);
+        mSegmentStart = index;
+        if (mSegment.length == 0) {
+          throw new IOException("Empty segment at sum " + index + " of " + log.id);
+        }
+      }
+    }
+  }
+
+  private static LogEnd cutoffLogOf(List<LogEnd> logs) {
+    LogEnd cutoffLog = null;
+    for (LogEnd log : logs) {
+      if (log.first > 0
+          && (cutoffLog == null || log.firstKey().compareTo(cutoffLog.firstKey()) > 0)) {
+        cutoffLog = log;
+      }
+    }
+    return cutoffLog;
+  }
+
+  private Log findLog(String id) {
+    for (Log log : mLogs) {
+      if (log.id.equals(id)) {
+        return log;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isValid(long entry) {
+    return Equation.isValid(EquationCodec.recordOf(entry));
+  }
+
+  /**
+   * Returns the valid equations of the entries {@code refs}, in their order.
+   */
+  private List<Equation> decode(List<int[]> refs) {
+    List<Equation> sums = new ArrayList<>(refs.size());
+    for (int[] ref : refs) {
+      Log log = mLogs.get(ref[0]);
+      int record = EquationCodec.recordOf(log.entries[ref[1] - log.first]);
+      if (Equation.isValid(record)) {
+        sums.add(Equation.decode(record));
+      }
+    }
+    return sums;
+  }
+
+  /**
+   * Compares the key of entry {@code index} of {@code log} with that of entry {@code otherIndex}
+   * of {@code otherLog}. Both entries must be copied.
+   */
+  private static int compareKeys(Log log, int index, Log otherLog, int otherIndex) {
+    return compareKeys(log.entries[index - log.first], log, index,
+        otherLog.entries[otherIndex - otherLog.first], otherLog, otherIndex);
+  }
+
+  /**
+   * Compares the key of {@code entry}, entry {@code index} of {@code log}, with that of
+   * {@code otherEntry}, entry {@code otherIndex} of {@code otherLog}.
+   */
+  private static int compareKeys(
+      long entry, Log log, int index, long otherEntry, Log otherLog, int otherIndex) {
+    return compareKeys(entry, log.deviceId, log.id, index,
+        otherEntry, otherLog.deviceId, otherLog.id, otherIndex);
+  }
+
+  /**
+   * Compares the key of {@code entry}, entry {@code index} of the log {@code logId} written by
+   * {@code deviceId}, with that of {@code otherEntry}: the time they were written, then the
+   * device id, the log id and the index.
+   */
+  private static int compareKeys(long entry, String deviceId, String logId, int index,
+      long otherEntry, String otherDeviceId, String otherLogId, int otherIndex) {
+    long seconds = EquationCodec.secondsOf(entry);
+    long otherSeconds = EquationCodec.secondsOf(otherEntry);
+    if (seconds != otherSeconds) {
+      return seconds < otherSeconds ? -1 : 1;
+    }
+    int order = deviceId.compareTo(otherDeviceId);
+    if (order == 0) {
+      order = logId.compareTo(otherLogId);
+    }
+    if (order == 0) {
+      order = index < otherIndex ? -1 : (index == otherIndex ? 0 : 1);
+    }
+    return order;
+  }
+}
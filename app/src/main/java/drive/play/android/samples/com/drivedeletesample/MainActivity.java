@@ -14,46 +14,39 @@
 
 package drive.play.android.samples.com.drivedeletesample;
 
+import android.app.AlertDialog;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.net.Uri;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
-import android.widget.ArrayAdapter;
+import android.widget.AbsListView;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.google.android.gms.auth.api.signin.GoogleSignIn;
 import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
 import com.google.android.gms.auth.api.signin.GoogleSignInClient;
 import com.google.android.gms.auth.api.signin.GoogleSignInOptions;
 import com.google.android.gms.drive.Drive;
-import com.google.android.gms.drive.DriveContents;
-import com.google.android.gms.drive.DriveFile;
-import com.google.android.gms.drive.DriveFolder;
-import com.google.android.gms.drive.DriveId;
 import com.google.android.gms.drive.DriveResource;
 import com.google.android.gms.drive.DriveResourceClient;
-import com.google.android.gms.drive.MetadataBuffer;
-import com.google.android.gms.drive.MetadataChangeSet;
-import com.google.android.gms.tasks.Continuation;
-import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
-import com.google.android.gms.tasks.Tasks;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.util.ArrayList;
-import java.util.Scanner;
+import java.io.PrintWriter;
 
 /**
  * Google Drive Android API Delete sample.
@@ -67,17 +60,60 @@ import java.util.Scanner;
 public class MainActivity extends AppCompatActivity {
   private static final String TAG = "MainActivity";
   private static final int REQUEST_CODE_SIGN_IN = 0;
-  private static final String DRIVE_ID = "driveId";
+  private static final int REQUEST_CODE_EXPORT_CSV = 1;
+  private static final int REQUEST_CODE_EXPORT_JSON = 2;
+  private static final int REQUEST_CODE_IMPORT = 3;
+
+  /** Suggested name of exported files, without the extension. */
+  private static final String EXPORT_FILE_NAME = "simple-math-history";
+
+  /** Types of the files offered for import; CSV files often come as one of the others. */
+  private static final String[] IMPORT_MIME_TYPES = {
+      "text/csv", "text/comma-separated-values", "text/plain", "application/json"};
+
+  /** Number of sums read from the on-device history at a time. */
+  private static final int HISTORY_PAGE_SIZE = 50;
+
+  /** Older sums are read once the list is scrolled to within this many rows of its end. */
+  private static final int HISTORY_PREFETCH_ROWS = 10;
 
   /** Handles access to resources in Drive. */
   private DriveResourceClient mDriveResourceClient;
 
-  private SharedPreferences mSharedPreferences;
-  private ArrayAdapter<String> mSumAdapter;
+  /** Owns the history and its sync with App Data; shared with other instances of the activity. */
+  private SyncManager mSyncManager;
+
+  private EquationHistory mHistory;
+  private HistoryAdapter mSumAdapter;
   private Equation mCurrentEquation;
 
+  /** On-device copy of the history, shown before sign-in completes. */
+  private LocalHistoryStore mLocalStore;
+
+  /** Shows {@link #mLocalStore} in {@link #mSumAdapter}, one page at a time. */
+  private HistoryPager mHistoryPager;
+
+  /** Shows the history once it has been reconciled with App Data. */
+  private final SyncManager.LoadListener mPastSumsListener = new SyncManager.LoadListener() {
+    @Override
+    public void onPastSumsLoaded() {
+      runOnUiThread(new Runnable() {
+        @Override
+        public void run() {
+          mHistoryPager.reload(new Runnable() {
+            @Override
+            public void run() {
+              mSyncManager.traceStartup("synced history shown");
+            }
+          });
+        }
+      });
+    }
+  };
+
   /** UI elements. */
   private TextView mQuestionTextView;
+  private TextView mStatsTextView;
   private EditText mAnswerEditText;
   private Button mSubmitButton;
   private Button mResetButton;
@@ -86,14 +122,58 @@ public class MainActivity extends AppCompatActivity {
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
     setContentView(R.layout.activity_main);
-    mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+    mSyncManager = SyncManager.get(this);
+    mSyncManager.traceStartup("activity created");
+    mLocalStore = mSyncManager.getLocalStore();
 
     // Create and add adapter to this activity's ListView.
     ListView listView = (ListView) findViewById(R.id.listView);
-    mSumAdapter =
-        new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, new ArrayList<String>());
+    mHistory = new EquationHistory();
+    mSumAdapter = new HistoryAdapter(this, mHistory);
     listView.setAdapter(mSumAdapter);
 
+    // Show the history kept on the device right away; it is reconciled with App Data once
+    // sign-in completes. Older sums are read as the list is scrolled, from App Data once the
+    // device has no older ones.
+    mHistoryPager = new HistoryPager(mLocalStore, mHistory, mSumAdapter, HISTORY_PAGE_SIZE);
+    mStatsTextView = (TextView) findViewById(R.id.statsTextView);
+    mHistoryPager.setOlderSumsLoader(new HistoryPager.OlderSumsLoader() {
+      @Override
+      public void loadOlderSums(Runnable onDone) {
+        mSyncManager.loadOlderSums(onDone);
+      }
+    });
+    mHistoryPager.setAppender(new HistoryPager.Appender() {
+      @Override
+      public void append(Equation equation) throws IOException {
+        mSyncManager.submit(equation);
+      }
+    });
+    mHistoryPager.setStatsListener(new HistoryPager.StatsListener() {
+      @Override
+      public void onStatsChanged(AccuracyStats stats) {
+        mStatsTextView.setText(stats.toString());
+      }
+    });
+    mHistoryPager.reload(new Runnable() {
+      @Override
+      public void run() {
+        mSyncManager.traceStartup("local history shown");
+      }
+    });
+    listView.setOnScrollListener(new AbsListView.OnScrollListener() {
+      @Override
+      public void onScrollStateChanged(AbsListView view, int scrollState) {}
+
+      @Override
+      public void onScroll(
+          AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (firstVisibleItem + visibleItemCount >= totalItemCount - HISTORY_PREFETCH_ROWS) {
+          mHistoryPager.loadOlder();
+        }
+      }
+    });
+
     // Set up views and listeners for views. All views are disabled by default, and will be
     // enabled once sign-in is complete.
     mQuestionTextView = (TextView) findViewById(R.id.questionTextView);
@@ -109,14 +189,12 @@ public class MainActivity extends AppCompatActivity {
           return;
         }
         mCurrentEquation.setAnswer(Integer.parseInt(mAnswerEditText.getText().toString()));
-        mSumAdapter.insert(mCurrentEquation.toString(), 0);
-        mSumAdapter.notifyDataSetChanged();
+        Equation sum = mCurrentEquation;
+        // Save the current sum on the device and to app data, and show it once saved.
+        mHistoryPager.append(sum);
 
         // Show new sum.
         showSum();
-
-        // Save the current sum to app data.
-        submitAnswer();
       }
     });
 
@@ -125,10 +203,10 @@ public class MainActivity extends AppCompatActivity {
     mResetButton.setOnClickListener(new View.OnClickListener() {
       @Override
       public void onClick(View v) {
-        mSumAdapter.clear();
-        mSumAdapter.notifyDataSetChanged();
-
-        deleteSavedEquations();
+        mSyncManager.reset();
+        mHistoryPager.clear();
+        // Brings back the answers given on other devices.
+        loadPastSums();
       }
     });
 
@@ -136,6 +214,91 @@ public class MainActivity extends AppCompatActivity {
     signIn();
   }
 
+  @Override
+  protected void onStart() {
+    super.onStart();
+    // Show answers given on other devices while this activity is visible.
+    mSyncManager.startWatching(mPastSumsListener);
+  }
+
+  @Override
+  protected void onPause() {
+    super.onPause();
+    mSyncManager.flush();
+  }
+
+  @Override
+  protected void onStop() {
+    super.onStop();
+    mSyncManager.stopWatching();
+    mSyncManager.flush();
+    mSyncManager.scheduleSyncIfPending();
+  }
+
+  @Override
+  public boolean onCreateOptionsMenu(Menu menu) {
+    getMenuInflater().inflate(R.menu.main, menu);
+    return true;
+  }
+
+  @Override
+  public boolean onOptionsItemSelected(MenuItem item) {
+    if (item.getItemId() == R.id.action_export_csv) {
+      chooseExportFile(HistoryTransfer.Format.CSV, REQUEST_CODE_EXPORT_CSV);
+      return true;
+    }
+    if (item.getItemId() == R.id.action_export_json) {
+      chooseExportFile(HistoryTransfer.Format.JSON, REQUEST_CODE_EXPORT_JSON);
+      return true;
+    }
+    if (item.getItemId() == R.id.action_import) {
+      Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT)
+          .addCategory(Intent.CATEGORY_OPENABLE)
+          .setType("*/*")
+          .putExtra(Intent.EXTRA_MIME_TYPES, IMPORT_MIME_TYPES);
+      startActivityForResult(intent, REQUEST_CODE_IMPORT);
+      return true;
+    }
+    if (item.getItemId() == R.id.action_metrics) {
+      new AlertDialog.Builder(this)
+          .setTitle(item.getTitle())
+          .setMessage(mSyncManager.getMetrics().toString())
+          .setPositiveButton(android.R.string.ok, null)
+          .show();
+      return true;
+    }
+    if (item.getItemId() == R.id.action_trace) {
+      new AlertDialog.Builder(this)
+          .setTitle(item.getTitle())
+          .setMessage(mSyncManager.getStartupTrace().toString())
+          .setPositiveButton(android.R.string.ok, null)
+          .show();
+      return true;
+    }
+    return super.onOptionsItemSelected(item);
+  }
+
+  /**
+   * Prints the App Data metrics and the startup trace, e.g. for
+   * {@code adb shell dumpsys activity drive.play.android.samples.com.drivedeletesample}.
+   */
+  @Override
+  public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+    super.dump(prefix, fd, writer, args);
+    writer.println(prefix + "App Data metrics:");
+    mSyncManager.getMetrics().dump(prefix + "  ", writer);
+    writer.println(prefix + "Startup trace:");
+    mSyncManager.getStartupTrace().dump(prefix + "  ", writer);
+  }
+
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    // SyncManager outlives this activity; loads and transfers in progress must not update it.
+    mSyncManager.removeLoadListener(mPastSumsListener);
+    mHistoryPager.shutdown();
+  }
+
   /**
    * Enables Views if sign-in was successful.
    */
@@ -157,151 +320,51 @@ public class MainActivity extends AppCompatActivity {
   }
 
   /**
-   * Writes the first sum to the specified {@code driveContents} and creates a new App Data file
-   * from the contents.
+   * Lets the user choose where to export the history to in {@code format}.
    */
-  private void writeFirstSum(final DriveContents driveContents) {
-    writeSums(driveContents);
-
-    final MetadataChangeSet changeSet =
-        new MetadataChangeSet.Builder().setTitle("Equation File").setMimeType("text/plain").build();
-
-    mDriveResourceClient.getAppFolder()
-        .continueWithTask(new Continuation<DriveFolder, Task<DriveFile>>() {
-          @Override
-          public Task<DriveFile> then(@NonNull Task<DriveFolder> task) throws Exception {
-            if (task.isSuccessful()) {
-              DriveFolder appData = task.getResult();
-              return mDriveResourceClient.createFile(appData, changeSet, driveContents);
-            } else {
-              Log.e(TAG, "Unable to retrieve App Data", task.getException());
-              return Tasks.forException(task.getException());
-            }
-          }
-        })
-        .addOnSuccessListener(new OnSuccessListener<DriveFile>() {
-          @Override
-          public void onSuccess(DriveFile driveFile) {
-            storeSumFileId(driveFile.getDriveId());
-            Log.d(TAG, "App data successfully written. DriveId stored in shared preferences");
-          }
-        })
-        .addOnFailureListener(new OnFailureListener() {
-          @Override
-          public void onFailure(@NonNull Exception e) {
-            Log.e(TAG, "Unable to create sum file", e);
-          }
-        });
+  private void chooseExportFile(HistoryTransfer.Format format, int requestCode) {
+    Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT)
+        .addCategory(Intent.CATEGORY_OPENABLE)
+        .setType(format.mimeType())
+        .putExtra(Intent.EXTRA_TITLE, EXPORT_FILE_NAME + "." + format.extension());
+    startActivityForResult(intent, requestCode);
   }
 
   /**
-   * Updates the App Data file associated with {@code driveContents} with the current sum.
+   * Exports the history to the chosen file {@code uri} in the background.
    */
-  private void updateSums(DriveContents driveContents) {
-    writeSums(driveContents);
-
-    mDriveResourceClient.commitContents(driveContents, /* metadataChangeSet= */ null)
-        .addOnSuccessListener(new OnSuccessListener<Void>() {
-          @Override
-          public void onSuccess(Void aVoid) {
-            Log.d(TAG, "App data successfully updated");
-          }
-        })
-        .addOnFailureListener(new OnFailureListener() {
-          @Override
-          public void onFailure(@NonNull Exception e) {
-            Log.e(TAG, "Unable to write contents.", e);
-          }
-        });
+  private void exportHistory(Uri uri, HistoryTransfer.Format format) {
+    OutputStream out;
+    try {
+      out = getContentResolver().openOutputStream(uri);
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to open the export file.", e);
+      Toast.makeText(this, "Unable to open the file.", Toast.LENGTH_LONG).show();
+      return;
+    }
+    mSyncManager.exportHistory(out, format, new TransferProgress("Exported"));
   }
 
   /**
-   * Writes the current sum to the specified {@code driveContents}.
+   * Imports the history in the chosen file {@code uri} in the background.
    */
-  private void writeSums(final DriveContents driveContents) {
-    OutputStream outputStream = driveContents.getOutputStream();
-    try (Writer writer = new OutputStreamWriter(outputStream)) {
-      for (int i = 0; i < mSumAdapter.getCount(); i++) {
-        writer.write(mSumAdapter.getItem(i) + "\n");
-      }
+  private void importHistory(Uri uri) {
+    InputStream in;
+    try {
+      in = getContentResolver().openInputStream(uri);
     } catch (IOException e) {
-      Log.e(TAG, "Error occurred while writing to driveContents.", e);
+      Log.e(TAG, "Unable to open the import file.", e);
+      Toast.makeText(this, "Unable to open the file.", Toast.LENGTH_LONG).show();
+      return;
     }
+    mSyncManager.importHistory(in, new TransferProgress("Imported"));
   }
 
   /**
-   * Loads the past sums from the App Data file.
+   * Loads the past sums from App Data and shows the reconciled history.
    */
   private void loadPastSums() {
-    mDriveResourceClient.getAppFolder()
-        .continueWithTask(new Continuation<DriveFolder, Task<MetadataBuffer>>() {
-          @Override
-          public Task<MetadataBuffer> then(@NonNull Task<DriveFolder> task) throws Exception {
-            if (!task.isSuccessful()) {
-              Log.e(TAG, "Unable to retrieve App Data folder.", task.getException());
-              return Tasks.forException(task.getException());
-            }
-
-            DriveFolder appDataFolder = task.getResult();
-            return mDriveResourceClient.listChildren(appDataFolder);
-          }
-        })
-        .continueWithTask(new Continuation<MetadataBuffer, Task<DriveContents>>() {
-          @Override
-          public Task<DriveContents> then(@NonNull Task<MetadataBuffer> task) throws Exception {
-            if (!task.isSuccessful()) {
-              Log.e(TAG, "Unable to retrieve App Data file list.", task.getException());
-              return Tasks.forException(task.getException());
-            }
-
-            // If there already exists an App Data file, use it to load past sums.
-            MetadataBuffer metadataBuffer = task.getResult();
-            Log.d(TAG, metadataBuffer.getCount() + "");
-            if (metadataBuffer.getCount() > 0) {
-              DriveId driveId = metadataBuffer.get(0).getDriveId();
-              DriveFile sumFile = driveId.asDriveFile();
-
-              // Once the open is complete, retrieve DriveContents
-              return mDriveResourceClient.openFile(sumFile, DriveFile.MODE_READ_ONLY);
-            } else {
-              return null;
-            }
-          }
-        })
-        .addOnSuccessListener(new OnSuccessListener<DriveContents>() {
-          @Override
-          public void onSuccess(DriveContents driveContents) {
-            mSumAdapter.clear();
-
-            // Retrieve InputStream of DriveContents and use it to extract sums. Each sum is
-            // stored on a separate line.
-            if (driveContents != null) {
-              Scanner scanner = new Scanner(driveContents.getInputStream());
-              while (scanner.hasNextLine()) {
-                mSumAdapter.add(scanner.nextLine());
-              }
-            }
-
-            mSumAdapter.notifyDataSetChanged();
-            Log.d(TAG, "Past sums loaded.");
-          }
-        })
-        .addOnFailureListener(new OnFailureListener() {
-          @Override
-          public void onFailure(@NonNull Exception e) {
-            Log.e(TAG, "Unable to retrieve file contents.", e);
-          }
-        });
-  }
-
-  /**
-   * Saves {@code driveId} of the associated App Data file to {@link SharedPreferences}.
-   */
-  private void storeSumFileId(DriveId driveId) {
-    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
-    SharedPreferences.Editor editor = sharedPreferences.edit();
-    editor.putString(DRIVE_ID, driveId.encodeToString());
-    editor.apply();
+    mSyncManager.loadPastSums(mPastSumsListener);
   }
 
   @Override
@@ -320,13 +383,32 @@ public class MainActivity extends AppCompatActivity {
       } else {
         Log.e(TAG, "Unable to sign in, result code " + resultCode);
       }
+      return;
+    }
+    if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+      return;
+    }
+    if (requestCode == REQUEST_CODE_EXPORT_CSV) {
+      exportHistory(data.getData(), HistoryTransfer.Format.CSV);
+    } else if (requestCode == REQUEST_CODE_EXPORT_JSON) {
+      exportHistory(data.getData(), HistoryTransfer.Format.JSON);
+    } else if (requestCode == REQUEST_CODE_IMPORT) {
+      importHistory(data.getData());
     }
   }
 
   /**
-   * Attempts to sign-in first via silent sign-in, then with a sign-in {@link Intent}.
+   * Signs in with the account signed in last, if it still has access to the App Folder, so that
+   * App Data is loaded without waiting for a round trip. Otherwise attempts to sign-in first via
+   * silent sign-in, then with a sign-in {@link Intent}.
    */
   private void signIn() {
+    GoogleSignInAccount account = GoogleSignIn.getLastSignedInAccount(this);
+    if (account != null && GoogleSignIn.hasPermissions(account, Drive.SCOPE_APPFOLDER)) {
+      Log.i(TAG, "Signed in with the last signed-in account.");
+      onSignInSuccess(account);
+      return;
+    }
     Log.i(TAG, "Start silent sign-in.");
     final GoogleSignInClient signInClient = buildGoogleSignInClient();
     signInClient.silentSignIn()
@@ -350,9 +432,11 @@ public class MainActivity extends AppCompatActivity {
    * account}.
    */
   private void onSignInSuccess(GoogleSignInAccount account) {
+    mSyncManager.traceStartup("account available");
     createDriveResourceClient(account);
     loadPastSums();
     enableViews();
+    mSyncManager.traceStartup("views enabled");
   }
 
   /**
@@ -372,101 +456,52 @@ public class MainActivity extends AppCompatActivity {
   private void createDriveResourceClient(GoogleSignInAccount account) {
     Log.i(TAG, "Creating DriveResourceClient.");
     mDriveResourceClient = Drive.getDriveResourceClient(getApplicationContext(), account);
+    mSyncManager.connect(mDriveResourceClient);
   }
 
   /**
-   * Submits answers to Equations by writing them to an App Data file. If an App Data file already
-   * exists in {@link SharedPreferences}, it will be updated; otherwise, an App Data file is created
-   * then modified.
+   * Shows the progress of an export or import in place of the statistics, and the outcome once
+   * it has ended.
    */
-  private void submitAnswer() {
-    final String driveIdStr = mSharedPreferences.getString(DRIVE_ID, null);
-    if (driveIdStr != null) {
-      // App Data file already exists, open it.
-      DriveId fileId = DriveId.decodeFromString(driveIdStr);
-      DriveFile sumFile = fileId.asDriveFile();
-
-      mDriveResourceClient.openFile(sumFile, DriveFile.MODE_WRITE_ONLY)
-          .addOnCompleteListener(new OnCompleteListener<DriveContents>() {
-            @Override
-            public void onComplete(@NonNull Task<DriveContents> task) {
-              mSubmitButton.setEnabled(true);
-            }
-          })
-          .addOnSuccessListener(new OnSuccessListener<DriveContents>() {
-            @Override
-            public void onSuccess(DriveContents driveContents) {
-              updateSums(driveContents);
-            }
-          })
-          .addOnFailureListener(new OnFailureListener() {
-            @Override
-            public void onFailure(@NonNull Exception e) {
-              Log.e(TAG, "Unable to retrieve contents.", e);
-            }
+  private class TransferProgress implements SyncManager.TransferListener {
+    private final String mVerb;
+    private volatile long mCount;
 
-          });
-    } else {
-      // App Data file does not exist yet, create it.
-      mDriveResourceClient.createContents()
-          .addOnCompleteListener(new OnCompleteListener<DriveContents>() {
-            @Override
-            public void onComplete(@NonNull Task<DriveContents> task) {
-              mSubmitButton.setEnabled(true);
-            }
-          })
-          .addOnSuccessListener(new OnSuccessListener<DriveContents>() {
-            @Override
-            public void onSuccess(DriveContents driveContents) {
-              writeFirstSum(driveContents);
-            }
-          })
-          .addOnFailureListener(new OnFailureListener() {
-            @Override
-            public void onFailure(@NonNull Exception e) {
-              Log.e(TAG, "Unable to retrieve contents.", e);
-            }
-          });
+    TransferProgress(String verb) {
+      mVerb = verb;
     }
-  }
 
-  /**
-   * Deletes the App Data file associated with the {@link DriveId} in {@link SharedPreferences}, if
-   * it exists.
-   */
-  private void deleteSavedEquations() {
-    final String driveIdStr = mSharedPreferences.getString(DRIVE_ID, null);
-    if (driveIdStr != null) {
-      DriveId fileId = DriveId.decodeFromString(driveIdStr);
-
-      // [START delete_file]
-      // Delete App Data file
-      DriveFile sumFile = fileId.asDriveFile();
-      mDriveResourceClient.delete(sumFile)
-          .addOnSuccessListener(new OnSuccessListener<Void>() {
-            @Override
-            public void onSuccess(Void aVoid) {
-              // Delete completed successfully. UI changes, etc. can now be updated to reflect the
-              // change.
-
-              // [START_EXCLUDE]
-              // Remove stored DriveId from SharedPreferences
-              mSharedPreferences.edit().remove(DRIVE_ID).apply();
-              Log.d(TAG, "Past sums deleted.");
-              // [END_EXCLUDE]
-            }
-          })
-          .addOnFailureListener(new OnFailureListener() {
-            @Override
-            public void onFailure(@NonNull Exception e) {
-              // Delete was not completed. Inform the user or add failure handling here.
+    @Override
+    public void onProgress(final long count) {
+      mCount = count;
+      runOnUiThread(new Runnable() {
+        @Override
+        public void run() {
+          if (isDestroyed()) {
+            return;
+          }
+          mStatsTextView.setText(mVerb + " " + count + " answers\u2026");
+        }
+      });
+    }
 
-              // [START_EXCLUDE]
-              Log.e(TAG, "Unable to delete App Data.", e);
-              // [END_EXCLUDE]
-            }
-          });
-      // [END delete_file]
+    @Override
+    public void onTransferEnded(final IOException failure) {
+      runOnUiThread(new Runnable() {
+        @Override
+        public void run() {
+          if (isDestroyed()) {
+            return;
+          }
+          String message = mVerb + " " + mCount + " answers.";
+          if (failure != null) {
+            message += " Stopped: " + failure.getMessage();
+          }
+          Toast.makeText(MainActivity.this, message, Toast.LENGTH_LONG).show();
+          // Shows imported answers, and the statistics again.
+          mHistoryPager.reload();
+        }
+      });
     }
   }
 }
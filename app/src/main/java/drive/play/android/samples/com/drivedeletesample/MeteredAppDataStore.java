@@ -0,0 +1,219 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Decorates an {@link AppDataStore} to record the latency, errors and in-flight count of every
+ * call, and the bytes read and written through its contents, in an {@link AppDataMetrics}.
+ */
+class MeteredAppDataStore implements AppDataStore {
+  private final AppDataStore mStore;
+  private final AppDataMetrics mMetrics;
+
+  private final AppDataMetrics.Operation mListFiles;
+  private final AppDataMetrics.Operation mCreateContents;
+  private final AppDataMetrics.Operation mCreateFile;
+  private final AppDataMetrics.Operation mOpenFile;
+  private final AppDataMetrics.Operation mCommitContents;
+  private final AppDataMetrics.Operation mDelete;
+
+  MeteredAppDataStore(AppDataStore store, AppDataMetrics metrics) {
+    mStore = store;
+    mMetrics = metrics;
+    mListFiles = metrics.operation("listFiles");
+    mCreateContents = metrics.operation("createContents");
+    mCreateFile = metrics.operation("createFile");
+    mOpenFile = metrics.operation("openFile");
+    mCommitContents = metrics.operation("commitContents");
+    mDelete = metrics.operation("delete");
+  }
+
+  @Override
+  public List<FileInfo> listFiles() throws IOException {
+    long start = mListFiles.begin();
+    boolean succeeded = false;
+    try {
+      List<FileInfo> files = mStore.listFiles();
+      succeeded = true;
+      return files;
+    } finally {
+      mListFiles.end(start, succeeded);
+    }
+  }
+
+  @Override
+  public boolean isSameFile(String fileId, String otherFileId) {
+    return mStore.isSameFile(fileId, otherFileId);
+  }
+
+  @Override
+  public Contents createContents() throws IOException {
+    long start = mCreateContents.begin();
+    boolean succeeded = false;
+    try {
+      Contents contents = new MeteredContents(mStore.createContents());
+      succeeded = true;
+      return contents;
+    } finally {
+      mCreateContents.end(start, succeeded);
+    }
+  }
+
+  @Override
+  public String createFile(String title, String mimeType, Contents contents) throws IOException {
+    long start = mCreateFile.begin();
+    boolean succeeded = false;
+    try {
+      String fileId = mStore.createFile(title, mimeType, unwrap(contents));
+      succeeded = true;
+      return fileId;
+    } finally {
+      mCreateFile.end(start, succeeded);
+    }
+  }
+
+  @Override
+  public Contents openFile(String fileId, boolean writable) throws IOException {
+    long start = mOpenFile.begin();
+    boolean succeeded = false;
+    try {
+      Contents contents = new MeteredContents(mStore.openFile(fileId, writable));
+      succeeded = true;
+      return contents;
+    } finally {
+      mOpenFile.end(start, succeeded);
+    }
+  }
+
+  @Override
+  public void commitContents(Contents contents) throws IOException {
+    long start = mCommitContents.begin();
+    boolean succeeded = false;
+    try {
+      mStore.commitContents(unwrap(contents));
+      succeeded = true;
+    } finally {
+      mCommitContents.end(start, succeeded);
+    }
+  }
+
+  @Override
+  public void discardContents(Contents contents) {
+    mStore.discardContents(unwrap(contents));
+  }
+
+  @Override
+  public void delete(String fileId) throws IOException {
+    long start = mDelete.begin();
+    boolean succeeded = false;
+    try {
+      mStore.delete(fileId);
+      succeeded = true;
+    } finally {
+      mDelete.end(start, succeeded);
+    }
+  }
+
+  private static Contents unwrap(Contents contents) {
+    return ((MeteredContents) contents).mContents;
+  }
+
+  /**
+   * Counts the bytes read from and written to contents.
+   */
+  private class MeteredContents implements Contents {
+    private final Contents mContents;
+
+    MeteredContents(Contents contents) {
+      mContents = contents;
+    }
+
+    @Override
+    public long size() throws IOException {
+      return mContents.size();
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+      int read = mContents.read(dst, position);
+      if (read > 0) {
+        mMetrics.addBytesRead(read);
+      }
+      return read;
+    }
+
+    @Override
+    public void write(ByteBuffer src, long position) throws IOException {
+      int remaining = src.remaining();
+      mContents.write(src, position);
+      mMetrics.addBytesWritten(remaining);
+    }
+
+    @Override
+    public void truncate(long size) throws IOException {
+      mContents.truncate(size);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+      return new FilterInputStream(mContents.getInputStream()) {
+        @Override
+        public int read() throws IOException {
+          int b = super.read();
+          if (b >= 0) {
+            mMetrics.addBytesRead(1);
+          }
+          return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+          int read = super.read(b, off, len);
+          if (read > 0) {
+            mMetrics.addBytesRead(read);
+          }
+          return read;
+        }
+      };
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+      return new FilterOutputStream(mContents.getOutputStream()) {
+        @Override
+        public void write(int b) throws IOException {
+          out.write(b);
+          mMetrics.addBytesWritten(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+          mMetrics.addBytesWritten(len);
+        }
+      };
+    }
+  }
+}
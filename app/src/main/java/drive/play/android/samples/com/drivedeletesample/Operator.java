@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+/**
+ * An arithmetic operation of an {@link Equation}. The ordinal is the 2 bit operation code of an
+ * encoded record, so constants must not be reordered.
+ */
+enum Operator {
+  PLUS("+"),
+  MINUS("-"),
+  TIMES("*"),
+  /** Integer division, only used when the second operand is non zero. */
+  DIVIDE("/");
+
+  private static final Operator[] VALUES = values();
+
+  private final String mSymbol;
+
+  Operator(String symbol) {
+    mSymbol = symbol;
+  }
+
+  /**
+   * Returns the symbol shown for this operation, e.g. {@code "+"}.
+   */
+  String symbol() {
+    return mSymbol;
+  }
+
+  /**
+   * Applies this operation to {@code p1} and {@code p2}.
+   */
+  int apply(int p1, int p2) {
+    switch (this) {
+      case PLUS:
+        return p1 + p2;
+      case MINUS:
+        return p1 - p2;
+      case TIMES:
+        return p1 * p2;
+      default:
+        // To keep things simple integer division is used.
+        return p1 / p2;
+    }
+  }
+
+  /**
+   * Returns the operator with the given 2 bit code, i.e. its ordinal.
+   */
+  static Operator fromCode(int code) {
+    return VALUES[code];
+  }
+
+  /**
+   * Returns the operator shown as {@code symbol}, or null if there is none.
+   */
+  static Operator fromSymbol(String symbol) {
+    for (Operator operator : VALUES) {
+      if (operator.mSymbol.equals(symbol)) {
+        return operator;
+      }
+    }
+    return null;
+  }
+}
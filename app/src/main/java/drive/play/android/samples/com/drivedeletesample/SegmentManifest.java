@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lists the segment files that together hold the log of one device in App Data, oldest first. Each
+ * segment is an {@link EquationCodec} file of at most {@link #getCapacity()} equations; only the
+ * newest one, the tail, is appended to. When a batch no longer fits in the tail, the tail and the
+ * batch are written to new segments, compressed except for the new tail, and the manifest is
+ * rewritten to list them in place of the previous tail.
+ *
+ * <p>The manifest starts with the magic bytes {@code "SMMF"} and a version byte, followed by the
+ * id of the device writing the log, the segment capacity, the number of segments and, per
+ * segment, its file id and number of equations. The number of equations of the tail is not kept
+ * up to date; it follows from the tail's size. Instances are immutable.
+ */
+final class SegmentManifest {
+  static final int VERSION = 1;
+
+  private static final byte[] MAGIC = {'S', 'M', 'M', 'F'};
+
+  private final String mDeviceId;
+  private final int mCapacity;
+  private final List<String> mSegmentIds;
+  private final int[] mCounts;
+
+  SegmentManifest(String deviceId, int capacity, List<String> segmentIds, int[] counts) {
+    if (segmentIds.isEmpty() || segmentIds.size() != counts.length) {
+      throw new IllegalArgumentException("Invalid segments");
+    }
+    mDeviceId = deviceId;
+    mCapacity = capacity;
+    mSegmentIds = Collections.unmodifiableList(new ArrayList<>(segmentIds));
+    mCounts = counts.clone();
+  }
+
+  /**
+   * Returns the id of the device writing the log.
+   */
+  String getDeviceId() {
+    return mDeviceId;
+  }
+
+  /**
+   * Returns the maximum number of equations per segment.
+   */
+  int getCapacity() {
+    return mCapacity;
+  }
+
+  /**
+   * Returns the file ids of the segments, oldest first.
+   */
+  List<String> getSegmentIds() {
+    return mSegmentIds;
+  }
+
+  /**
+   * Returns the number of equations in the sealed segment {@code index}.
+   */
+  int getCount(int index) {
+    if (index == mCounts.length - 1) {
+      throw new IllegalArgumentException("The count of the tail is not kept");
+    }
+    return mCounts[index];
+  }
+
+  /**
+   * Returns the file id of the tail segment.
+   */
+  String getTailId() {
+    return mSegmentIds.get(mSegmentIds.size() - 1);
+  }
+
+  /**
+   * Returns a manifest in which the tail is replaced by the new segments {@code newIds} holding
+   * {@code newCounts} equations.
+   */
+  SegmentManifest withTail(List<String> newIds, int[] newCounts) {
+    int sealed = mSegmentIds.size() - 1;
+    List<String> ids = new ArrayList<>(mSegmentIds.subList(0, sealed));
+    ids.addAll(newIds);
+    int[] counts = Arrays.copyOf(mCounts, ids.size());
+    System.arraycopy(newCounts, 0, counts, sealed, newCounts.length);
+    return new SegmentManifest(mDeviceId, mCapacity, ids, counts);
+  }
+
+  /**
+   * Writes this manifest to {@code out}, without closing it.
+   */
+  void write(OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    data.write(MAGIC);
+    data.writeByte(VERSION);
+    data.writeUTF(mDeviceId);
+    data.writeInt(mCapacity);
+    data.writeInt(mSegmentIds.size());
+    for (int i = 0; i < mSegmentIds.size(); i++) {
+      data.writeUTF(mSegmentIds.get(i));
+      data.writeInt(mCounts[i]);
+    }
+    data.flush();
+  }
+
+  /**
+   * Reads a manifest written by {@link #write}.
+   *
+   * @return the manifest, or null if {@code in} does not hold a manifest, e.g. because it is an
+   *     App Data file written before histories were segmented.
+   */
+  static SegmentManifest read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    byte[] magic = new byte[MAGIC.length];
+    try {
+      data.readFully(magic);
+      if (!Arrays.equals(magic, MAGIC) || data.readUnsignedByte() != VERSION) {
+        return null;
+      }
+    } catch (EOFException e) {
+      return null;
+    }
+    String deviceId = data.readUTF();
+    int capacity = data.readInt();
+    int size = data.readInt();
+    List<String> ids = new ArrayList<>(size);
+    int[] counts = new int[size];
+    for (int i = 0; i < size; i++) {
+      ids.add(data.readUTF());
+      counts[i] = data.readInt();
+    }
+    return new SegmentManifest(deviceId, capacity, ids, counts);
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import android.content.SharedPreferences;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * {@link SyncState} kept in {@link SharedPreferences}.
+ */
+class SharedPreferencesSyncState implements SyncState {
+  private static final String DRIVE_ID = "driveId";
+
+  /** Revision of the App Data file the on-device history matches. */
+  private static final String DRIVE_REVISION = "driveRevision";
+  private static final String DEVICE_ID = "deviceId";
+
+  /** Ids of the App Data files forgotten by resets that have yet to be deleted. */
+  private static final String FORGOTTEN_IDS = "forgottenIds";
+
+  private final SharedPreferences mSharedPreferences;
+
+  SharedPreferencesSyncState(SharedPreferences sharedPreferences) {
+    mSharedPreferences = sharedPreferences;
+  }
+
+  @Override
+  public String getFileId() {
+    return mSharedPreferences.getString(DRIVE_ID, null);
+  }
+
+  @Override
+  public void setFileId(String fileId) {
+    putOrRemove(DRIVE_ID, fileId);
+  }
+
+  @Override
+  public String getSyncedRevision() {
+    return mSharedPreferences.getString(DRIVE_REVISION, null);
+  }
+
+  @Override
+  public void setSyncedRevision(String revision) {
+    putOrRemove(DRIVE_REVISION, revision);
+  }
+
+  @Override
+  public Set<String> getForgottenIds() {
+    // A copy: the set returned by SharedPreferences must not be modified.
+    return new HashSet<>(
+        mSharedPreferences.getStringSet(FORGOTTEN_IDS, Collections.<String>emptySet()));
+  }
+
+  @Override
+  public void setForgottenIds(Set<String> fileIds) {
+    if (fileIds.isEmpty()) {
+      mSharedPreferences.edit().remove(FORGOTTEN_IDS).apply();
+    } else {
+      mSharedPreferences.edit().putStringSet(FORGOTTEN_IDS, new HashSet<>(fileIds)).apply();
+    }
+  }
+
+  @Override
+  public synchronized String getDeviceId() {
+    String deviceId = mSharedPreferences.getString(DEVICE_ID, null);
+    if (deviceId == null) {
+      deviceId = UUID.randomUUID().toString();
+      mSharedPreferences.edit().putString(DEVICE_ID, deviceId).apply();
+    }
+    return deviceId;
+  }
+
+  private void putOrRemove(String key, String value) {
+    if (value == null) {
+      mSharedPreferences.edit().remove(key).apply();
+    } else {
+      mSharedPreferences.edit().putString(key, value).apply();
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+/**
+ * A small, fast pseudo random number generator using the SplitMix64 algorithm, the one behind
+ * {@code java.util.SplittableRandom}, which is not available on all supported API levels.
+ *
+ * <p>Instances are not thread safe. To generate on several threads, give each thread its own
+ * generator created with {@link #split()}; the values drawn then only depend on the initial seed,
+ * not on how the threads are scheduled.
+ */
+final class SplitMixRandom {
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  private long mSeed;
+
+  SplitMixRandom(long seed) {
+    mSeed = seed;
+  }
+
+  /**
+   * Returns the next pseudo random {@code long}.
+   */
+  long nextLong() {
+    mSeed += GOLDEN_GAMMA;
+    return mix64(mSeed);
+  }
+
+  /**
+   * Returns a pseudo random {@code int} in [0, bound). The bias for bounds far below 2^32, as
+   * used here, is negligible.
+   */
+  int nextInt(int bound) {
+    return (int) (((nextLong() >>> 32) * bound) >>> 32);
+  }
+
+  /**
+   * Returns a new generator whose values are independent of the ones drawn from this one.
+   */
+  SplitMixRandom split() {
+    return new SplitMixRandom(mix64(nextLong()));
+  }
+
+  /**
+   * Returns the SplitMix64 finalizer of {@code z}; also used to derive seeds.
+   */
+  static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timestamps of the phases of a cold start, from the start of the process until the history is
+ * shown up to date, so that the time to an interactive list can be measured and exported. Each
+ * phase is recorded the first time it is reached only, so later loads, sign-ins or recreated
+ * activities do not move it. Safe to use from any thread.
+ */
+final class StartupTrace {
+  /**
+   * A phase that has been reached.
+   */
+  static final class Phase {
+    final String name;
+    /** Time since the start of the trace. */
+    final long elapsedNanos;
+    /** Name of the thread that reached the phase. */
+    final String thread;
+
+    Phase(String name, long elapsedNanos, String thread) {
+      this.name = name;
+      this.elapsedNanos = elapsedNanos;
+      this.thread = thread;
+    }
+  }
+
+  private final long mOriginNanos;
+
+  /** Phases in the order they were reached. Guarded by this. */
+  private final List<Phase> mPhases = new ArrayList<>();
+
+  /**
+   * Creates a trace that starts at {@code originNanos}, a {@link System#nanoTime()} value, e.g.
+   * the start of the process.
+   */
+  StartupTrace(long originNanos) {
+    mOriginNanos = originNanos;
+  }
+
+  /**
+   * Records that phase {@code name} has been reached now, unless it was reached before.
+   *
+   * @return the recorded phase, or null if it had been reached before.
+   */
+  Phase mark(String name) {
+    long elapsed = System.nanoTime() - mOriginNanos;
+    synchronized (this) {
+      for (Phase phase : mPhases) {
+        if (phase.name.equals(name)) {
+          return null;
+        }
+      }
+      Phase phase = new Phase(name, elapsed, Thread.currentThread().getName());
+      mPhases.add(phase);
+      return phase;
+    }
+  }
+
+  /**
+   * Returns the phases reached so far, in the order they were reached.
+   */
+  synchronized List<Phase> getPhases() {
+    return new ArrayList<>(mPhases);
+  }
+
+  /**
+   * Prints the phases, one line per phase with its time since the start of the trace and since
+   * the previous phase, each line starting with {@code prefix}.
+   */
+  void dump(String prefix, PrintWriter writer) {
+    writer.println(String.format(
+        Locale.US, "%s%-24s %9s %9s  %s", prefix, "phase", "at ms", "delta ms", "thread"));
+    long previous = 0;
+    for (Phase phase : getPhases()) {
+      writer.println(String.format(Locale.US, "%s%-24s %9.1f %9.1f  %s", prefix, phase.name,
+          toMillis(phase.elapsedNanos), toMillis(phase.elapsedNanos - previous), phase.thread));
+      previous = phase.elapsedNanos;
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringWriter out = new StringWriter();
+    PrintWriter writer = new PrintWriter(out);
+    dump("", writer);
+    writer.flush();
+    return out.toString();
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects submitted {@link Equation}s and hands them to a {@link Sink} in batches, so that a burst
+ * of answers results in a single write instead of one write per answer.
+ *
+ * <p>A batch is written once {@code windowMillis} have passed since the first pending submission,
+ * once {@code maxBatchSize} submissions are pending, or when {@link #flush()} is called. Batches
+ * are written one at a time on a single background thread, so only one write is ever in flight;
+ * submissions made while a write is running are collected into the next batch.
+ */
+class SubmitBatcher {
+  /**
+   * Destination of the batches. Called on the batcher thread, so it may block.
+   */
+  interface Sink {
+    /**
+     * Writes {@code batch}, oldest equation first. If this throws, the batch is kept and written
+     * together with the next one, unless it has been discarded in the meantime.
+     *
+     * @param generation the generation of the batch, see {@link #isCurrent(int)}.
+     */
+    void write(List<Equation> batch, int generation) throws Exception;
+  }
+
+  private final Sink mSink;
+  private final long mWindowMillis;
+  private final int mMaxBatchSize;
+  private final ScheduledExecutorService mExecutor;
+
+  /** Submissions not yet handed to the sink, oldest first. Guarded by {@code this}. */
+  private List<Equation> mPending = new ArrayList<>();
+
+  /** Whether a write of {@link #mPending} is already scheduled. Guarded by {@code this}. */
+  private boolean mWriteScheduled;
+
+  /** Incremented by {@link #discardPending()}. Guarded by {@code this}. */
+  private int mGeneration;
+
+  private final Runnable mWriteTask = new Runnable() {
+    @Override
+    public void run() {
+      writePending();
+    }
+  };
+
+  SubmitBatcher(Sink sink, long windowMillis, int maxBatchSize) {
+    mSink = sink;
+    mWindowMillis = windowMillis;
+    mMaxBatchSize = maxBatchSize;
+    mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        return new Thread(runnable, "SubmitBatcher");
+      }
+    });
+  }
+
+  /**
+   * Queues {@code equation} to be written with the next batch.
+   */
+  synchronized void submit(Equation equation) {
+    mPending.add(equation);
+    if (mPending.size() >= mMaxBatchSize) {
+      scheduleWrite(0);
+    } else {
+      scheduleWrite(mWindowMillis);
+    }
+  }
+
+  /**
+   * Queues {@code equations}, oldest first, to be written with the next batch, and writes it as
+   * soon as the write in flight, if any, has completed, however many they are.
+   */
+  synchronized void submitAll(List<Equation> equations) {
+    mPending.addAll(equations);
+    scheduleWrite(0);
+  }
+
+  /**
+   * Replaces the pending submissions with {@code equations}, oldest first, and writes them as soon
+   * as the write in flight, if any, has completed.
+   */
+  synchronized void replacePending(List<Equation> equations) {
+    mPending = new ArrayList<>(equations);
+    if (!mPending.isEmpty()) {
+      scheduleWrite(0);
+    }
+  }
+
+  /**
+   * Returns whether there are submissions that have not been handed to the sink yet, including
+   * those of a failed write that are kept for the next one.
+   */
+  synchronized boolean hasPending() {
+    return !mPending.isEmpty();
+  }
+
+  /**
+   * Writes all pending submissions as soon as the write in flight, if any, has completed.
+   */
+  synchronized void flush() {
+    if (!mPending.isEmpty()) {
+      scheduleWrite(0);
+    }
+  }
+
+  /**
+   * Writes all pending submissions right away. Must be called on the batcher thread, i.e. from a
+   * task passed to {@link #execute}, so that tasks queued before it have run.
+   */
+  void writeNow() {
+    writePending();
+  }
+
+  /**
+   * Runs {@code task} on the batcher thread. It never overlaps with the write of a batch.
+   */
+  void execute(Runnable task) {
+    mExecutor.execute(task);
+  }
+
+  /**
+   * Runs {@code task} on the batcher thread after {@code delayMillis} milliseconds.
+   */
+  void schedule(Runnable task, long delayMillis) {
+    mExecutor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Drops all pending submissions that have not been handed to the sink yet. A batch the sink is
+   * writing is not retried if the write fails, and sinks may check {@link #isCurrent(int)} to skip
+   * it altogether.
+   */
+  synchronized void discardPending() {
+    mPending = new ArrayList<>();
+    mGeneration++;
+  }
+
+  /**
+   * Returns whether batches of {@code generation} have not been discarded by
+   * {@link #discardPending()}.
+   */
+  synchronized boolean isCurrent(int generation) {
+    return generation == mGeneration;
+  }
+
+  /**
+   * Flushes pending submissions and stops the batcher thread once they are written. Submissions
+   * made after this call are ignored.
+   */
+  synchronized void shutdown() {
+    flush();
+    mExecutor.shutdown();
+  }
+
+  private void scheduleWrite(long delayMillis) {
+    if (mExecutor.isShutdown()) {
+      return;
+    }
+    if (delayMillis == 0 || !mWriteScheduled) {
+      mExecutor.schedule(mWriteTask, delayMillis, TimeUnit.MILLISECONDS);
+      mWriteScheduled = true;
+    }
+  }
+
+  private void writePending() {
+    List<Equation> batch;
+    int generation;
+    synchronized (this) {
+      mWriteScheduled = false;
+      if (mPending.isEmpty()) {
+        return;
+      }
+      batch = mPending;
+      generation = mGeneration;
+      mPending = new ArrayList<>();
+    }
+
+    try {
+      mSink.write(batch, generation);
+    } catch (Exception e) {
+      synchronized (this) {
+        if (generation == mGeneration) {
+          // Keep the batch ahead of newer submissions; it is retried with the next write.
+          batch.addAll(mPending);
+          mPending = batch;
+        }
+      }
+    }
+  }
+}
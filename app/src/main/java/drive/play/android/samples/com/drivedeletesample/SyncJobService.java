@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+import android.util.Log;
+
+import com.google.android.gms.auth.api.signin.GoogleSignIn;
+import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
+import com.google.android.gms.drive.Drive;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Syncs the answers and the delete of a reset history that are still pending with App Data while
+ * the app is not in use, once a network is available, with the account signed in last. The job
+ * survives reboots and backs off exponentially while syncs fail; it is scheduled by
+ * {@link SyncManager} whenever work is left pending.
+ */
+@RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+public class SyncJobService extends JobService {
+  private static final String TAG = "SyncJobService";
+
+  private static final int JOB_ID = 1;
+
+  /** Delay, in milliseconds, before the first retry of a failed sync; doubled by each failure. */
+  private static final long INITIAL_BACKOFF_MS = TimeUnit.SECONDS.toMillis(30);
+
+  /**
+   * Schedules the job, unless it is already scheduled or running, so that a scheduled job keeps
+   * its backoff.
+   */
+  static void schedule(Context context) {
+    JobScheduler scheduler =
+        (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    for (JobInfo job : scheduler.getAllPendingJobs()) {
+      if (job.getId() == JOB_ID) {
+        return;
+      }
+    }
+    // Pending answers are the user's, so they are not held back until the device is charging,
+    // and they are small enough for metered networks.
+    JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, SyncJobService.class))
+        .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+        .setBackoffCriteria(INITIAL_BACKOFF_MS, JobInfo.BACKOFF_POLICY_EXPONENTIAL)
+        .setPersisted(true)
+        .build();
+    if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+      Log.e(TAG, "Unable to schedule the background sync.");
+    }
+  }
+
+  @Override
+  public boolean onStartJob(final JobParameters params) {
+    GoogleSignInAccount account = GoogleSignIn.getLastSignedInAccount(this);
+    if (account == null || !GoogleSignIn.hasPermissions(account, Drive.SCOPE_APPFOLDER)) {
+      // Synced once the app signs in again.
+      Log.i(TAG, "Not signed in, background sync skipped.");
+      return false;
+    }
+    SyncManager syncManager = SyncManager.get(this);
+    syncManager.connect(Drive.getDriveResourceClient(getApplicationContext(), account));
+    syncManager.syncPending(new SyncManager.SyncListener() {
+      @Override
+      public void onSynced(boolean workLeft) {
+        Log.d(TAG, workLeft ? "Background sync failed, retrying with backoff."
+            : "Background sync done.");
+        jobFinished(params, workLeft);
+      }
+    });
+    return true;
+  }
+
+  @Override
+  public boolean onStopJob(JobParameters params) {
+    // The network was lost; whatever is left pending is retried with backoff.
+    return true;
+  }
+}
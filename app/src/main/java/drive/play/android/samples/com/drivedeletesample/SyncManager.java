@@ -0,0 +1,784 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.google.android.gms.drive.DriveResourceClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Process-wide owner of the on-device history and of its sync with App Data. Activities share it,
+ * so that however many of them exist, e.g. while one is recreated, there is a single
+ * {@link LocalHistoryStore} and a single {@link SubmitBatcher} thread through which every App Data
+ * call is made. Submits therefore queue behind the write in flight, and the history in App Data
+ * is created once, by the first batch, rather than by each racing submit.
+ */
+class SyncManager {
+  private static final String TAG = "SyncManager";
+
+  /** Longest time, in milliseconds, a submitted answer waits before it is written to App Data. */
+  private static final long SUBMIT_BATCH_WINDOW_MS = 2000;
+
+  /** Number of pending answers that triggers a write before the batch window has passed. */
+  private static final int SUBMIT_BATCH_SIZE = 20;
+
+  /** Imported answers are stored and written to App Data in batches of this many. */
+  private static final int IMPORT_BATCH_SIZE = AppDataSync.SEGMENT_CAPACITY;
+
+  /** Writes of a batch of imported answers before the import gives up. */
+  private static final int IMPORT_WRITE_ATTEMPTS = 3;
+
+  /**
+   * Delay, in milliseconds, before the first retry of a failed sync when it is retried in this
+   * process, before API 21.
+   */
+  private static final long SYNC_RETRY_MIN_MS = TimeUnit.SECONDS.toMillis(10);
+
+  /** Longest delay, in milliseconds, between retries of a failed sync in this process. */
+  private static final long SYNC_RETRY_MAX_MS = TimeUnit.MINUTES.toMillis(15);
+
+  /**
+   * Receives the result of {@link #loadPastSums}.
+   */
+  interface LoadListener {
+    /**
+     * Called on the batcher thread once the on-device history has been reconciled with App Data.
+     * Not called if App Data had not changed or could not be read.
+     */
+    void onPastSumsLoaded();
+  }
+
+  /**
+   * Receives the result of {@link #syncPending}.
+   */
+  interface SyncListener {
+    /**
+     * Called on the batcher thread once the pending answers and delete have been attempted.
+     *
+     * @param workLeft whether some of them failed and are still pending.
+     */
+    void onSynced(boolean workLeft);
+  }
+
+  /**
+   * Receives the progress and the end of {@link #exportHistory} and {@link #importHistory}, on a
+   * background thread.
+   */
+  interface TransferListener extends HistoryTransfer.ProgressListener {
+    /**
+     * Called once the transfer has ended.
+     *
+     * @param failure why the transfer stopped before the end of the history, or null.
+     */
+    void onTransferEnded(IOException failure);
+  }
+
+  private static SyncManager sInstance;
+
+  /** The application context, to schedule background syncs with. */
+  private final Context mContext;
+  private final LocalHistoryStore mLocalStore;
+  private final SyncState mSyncState;
+  private final SubmitBatcher mSubmitBatcher;
+
+  /** Reads imported files, so that the batcher thread is free to write their batches. */
+  private final ExecutorService mImportExecutor;
+
+  /** Timings of App Data calls and of the sync operations made of them. */
+  private final AppDataMetrics mMetrics = new AppDataMetrics();
+  private final AppDataMetrics.Operation mWriteMetrics = mMetrics.operation("writeSums");
+  private final AppDataMetrics.Operation mLoadMetrics = mMetrics.operation("loadPastSums");
+  private final AppDataMetrics.Operation mLoadOlderMetrics = mMetrics.operation("loadOlderSums");
+  private final AppDataMetrics.Operation mDeleteMetrics = mMetrics.operation("deleteSums");
+
+  /**
+   * Held while answers are stored on the device and queued for App Data, and while the unsynced
+   * answers are queued again by {@link #connect}, so that each answer is queued once.
+   */
+  private final Object mSubmitLock = new Object();
+
+  /** Set by {@link #reset()} until the store has been cleared; see {@link #clearStoreIfReset()}. */
+  private final AtomicBoolean mStoreClearPending = new AtomicBoolean();
+
+  /** Phases of the cold start of this process. */
+  private final StartupTrace mStartupTrace;
+
+  /** Syncs {@link #mLocalStore} with App Data once signed in, or null. Guarded by this. */
+  private AppDataSync mAppDataSync;
+
+  /**
+   * Watches App Data for changes made by other devices once signed in, or null. Guarded by this.
+   */
+  private DriveChangeWatcher mChangeWatcher;
+
+  /**
+   * Notified of loads caused by changes to App Data while an activity is started, or null if
+   * App Data is not watched. Guarded by this.
+   */
+  private LoadListener mChangeListener;
+
+  /**
+   * Listeners of the load that is queued on the batcher thread but has not started yet, or null if
+   * there is none. Later requests join that load instead of queueing another download. Guarded by
+   * this.
+   */
+  private List<LoadListener> mQueuedLoadListeners;
+
+  /** Listeners of the load that is running, or null if there is none. Guarded by this. */
+  private List<LoadListener> mRunningLoadListeners;
+
+  /** Failed syncs in a row retried in this process, before API 21. Guarded by this. */
+  private int mSyncRetries;
+
+  /** Whether a retry of a failed sync is scheduled in this process. Guarded by this. */
+  private boolean mSyncRetryScheduled;
+
+  /**
+   * Returns the instance for this process.
+   */
+  static synchronized SyncManager get(Context context) {
+    if (sInstance == null) {
+      sInstance = new SyncManager(context.getApplicationContext());
+    }
+    return sInstance;
+  }
+
+  private SyncManager(Context context) {
+    long originNanos = System.nanoTime();
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+      // Also count the time the process took to start before the first activity was created.
+      originNanos -= TimeUnit.MILLISECONDS.toNanos(
+          SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime());
+    }
+    mStartupTrace = new StartupTrace(originNanos);
+    mContext = context;
+    mLocalStore = new LocalHistoryStore(context.getFilesDir());
+    mSyncState =
+        new SharedPreferencesSyncState(PreferenceManager.getDefaultSharedPreferences(context));
+    mSubmitBatcher = new SubmitBatcher(new SubmitBatcher.Sink() {
+      @Override
+      public void write(List<Equation> batch, int generation) throws Exception {
+        writeBatch(batch, generation);
+      }
+    }, SUBMIT_BATCH_WINDOW_MS, SUBMIT_BATCH_SIZE);
+    mImportExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        return new Thread(runnable, "HistoryImport");
+      }
+    });
+  }
+
+  LocalHistoryStore getLocalStore() {
+    return mLocalStore;
+  }
+
+  AppDataMetrics getMetrics() {
+    return mMetrics;
+  }
+
+  StartupTrace getStartupTrace() {
+    return mStartupTrace;
+  }
+
+  /**
+   * Records that the startup phase {@code name} has been reached, if it is the first time.
+   */
+  void traceStartup(String name) {
+    StartupTrace.Phase phase = mStartupTrace.mark(name);
+    if (phase != null) {
+      Log.d(TAG, String.format(Locale.US, "Startup phase \"%s\" reached after %d ms.", name,
+          TimeUnit.NANOSECONDS.toMillis(phase.elapsedNanos)));
+    }
+  }
+
+  /**
+   * Starts syncing with App Data through {@code client}, once per process. The first call also
+   * queues again, on the batcher thread, the answers that were stored on the device but never
+   * written to App Data, e.g. because the process was killed before their batch was written, and
+   * resumes deleting a history that was reset but not deleted yet.
+   */
+  void connect(DriveResourceClient client) {
+    final AppDataSync appDataSync;
+    synchronized (this) {
+      if (mAppDataSync != null) {
+        return;
+      }
+      AppDataStore store = new MeteredAppDataStore(new DriveAppDataStore(client), mMetrics);
+      mAppDataSync = new AppDataSync(store, mLocalStore, mSyncState);
+      appDataSync = mAppDataSync;
+      mChangeWatcher = new DriveChangeWatcher(client, new Runnable() {
+        @Override
+        public void run() {
+          onAppDataChanged();
+        }
+      });
+    }
+    traceStartup("drive connected");
+    // Reads the whole history, so not on the caller's thread.
+    mSubmitBatcher.execute(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (mSubmitLock) {
+          clearStoreIfReset();
+          try {
+            // Includes the pending answers, which are all stored but not synced.
+            mSubmitBatcher.replacePending(mLocalStore.loadUnsynced());
+          } catch (IOException e) {
+            Log.e(TAG, "Unable to read unsynced sums.", e);
+          }
+        }
+      }
+    });
+    deletePastSums(appDataSync);
+  }
+
+  /**
+   * Stores {@code sum} on the device as the newest answer and queues it to be written to App
+   * Data. Writes to the device, so it should not be called on the main thread.
+   */
+  void submit(Equation sum) throws IOException {
+    synchronized (mSubmitLock) {
+      clearStoreIfReset();
+      mLocalStore.append(sum);
+      mSubmitBatcher.submit(sum);
+    }
+  }
+
+  /**
+   * Writes pending answers without waiting for the batch window to pass.
+   */
+  void flush() {
+    mSubmitBatcher.flush();
+  }
+
+  /**
+   * Loads the past sums from App Data and reconciles the on-device history with them. The load
+   * runs on the batcher thread, so no batch is written while the two are reconciled. If a load is
+   * already queued, this request joins it.
+   *
+   * @param listener notified once the history has been reconciled, or null.
+   */
+  void loadPastSums(LoadListener listener) {
+    synchronized (this) {
+      boolean queued = mQueuedLoadListeners != null;
+      if (!queued) {
+        mQueuedLoadListeners = new ArrayList<>();
+      }
+      if (listener != null) {
+        mQueuedLoadListeners.add(listener);
+      }
+      if (queued) {
+        return;
+      }
+    }
+    mSubmitBatcher.execute(new Runnable() {
+      @Override
+      public void run() {
+        AppDataSync appDataSync;
+        synchronized (SyncManager.this) {
+          mRunningLoadListeners = mQueuedLoadListeners;
+          mQueuedLoadListeners = null;
+          appDataSync = mAppDataSync;
+        }
+        boolean loaded = appDataSync != null && loadPastSums(appDataSync);
+        List<LoadListener> listeners;
+        synchronized (SyncManager.this) {
+          // Without those removed during the load.
+          listeners = mRunningLoadListeners;
+          mRunningLoadListeners = null;
+        }
+        if (loaded) {
+          for (LoadListener listener : listeners) {
+            listener.onPastSumsLoaded();
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Reconciles the on-device history with App Data. Called on the batcher thread.
+   *
+   * @return whether the on-device history was replaced.
+   */
+  private boolean loadPastSums(AppDataSync appDataSync) {
+    traceStartup("load started");
+    long start = mLoadMetrics.begin();
+    try {
+      boolean loaded = appDataSync.loadPastSums();
+      mLoadMetrics.end(start, true);
+      traceStartup("load finished");
+      updateWatchedFiles();
+      if (!loaded) {
+        Log.d(TAG, "App data unchanged since last sync, skipped download.");
+        return false;
+      }
+    } catch (IOException e) {
+      mLoadMetrics.end(start, false);
+      Log.e(TAG, "Unable to retrieve file contents.", e);
+      return false;
+    }
+    Log.d(TAG, "Past sums loaded.");
+    return true;
+  }
+
+  /**
+   * Stops notifying {@code listener} of loads, including the load that is running, e.g. because
+   * the activity it updates has been destroyed.
+   */
+  synchronized void removeLoadListener(LoadListener listener) {
+    if (mQueuedLoadListeners != null) {
+      mQueuedLoadListeners.remove(listener);
+    }
+    if (mRunningLoadListeners != null) {
+      mRunningLoadListeners.remove(listener);
+    }
+    if (mChangeListener == listener) {
+      mChangeListener = null;
+    }
+  }
+
+  /**
+   * Loads the changes to App Data made by other devices as they are notified, until
+   * {@link #stopWatching()}. Files are watched once the history has been loaded, and again after
+   * each load, as the logs of other devices gain segments or new devices add theirs.
+   *
+   * @param listener notified, on the batcher thread, once the on-device history has been
+   *     reconciled with a change.
+   */
+  void startWatching(LoadListener listener) {
+    synchronized (this) {
+      mChangeListener = listener;
+    }
+    updateWatchedFiles();
+  }
+
+  /**
+   * Stops loading the changes to App Data made by other devices.
+   */
+  synchronized void stopWatching() {
+    mChangeListener = null;
+    if (mChangeWatcher != null) {
+      mChangeWatcher.stop();
+    }
+  }
+
+  /**
+   * Loads App Data after a watched file has changed. Changes often come in bursts, e.g. one per
+   * file of a batch written by another device; they join the load already queued.
+   */
+  private void onAppDataChanged() {
+    LoadListener listener;
+    synchronized (this) {
+      listener = mChangeListener;
+    }
+    if (listener != null) {
+      Log.d(TAG, "App Data changed, loading the changes.");
+      loadPastSums(listener);
+    }
+  }
+
+  /**
+   * Watches the files of the other devices' logs known since the last load, if App Data is to be
+   * watched.
+   */
+  private synchronized void updateWatchedFiles() {
+    if (mChangeListener == null || mAppDataSync == null) {
+      return;
+    }
+    List<String> fileIds = mAppDataSync.getWatchedFileIds();
+    if (fileIds != null) {
+      mChangeWatcher.watch(fileIds);
+    }
+  }
+
+  /**
+   * Adds the next older part of the history in App Data to the on-device history, if the device
+   * does not have all of it, on the batcher thread.
+   *
+   * @param onDone run on the batcher thread once done, whether or not older sums were added.
+   */
+  void loadOlderSums(final Runnable onDone) {
+    mSubmitBatcher.execute(new Runnable() {
+      @Override
+      public void run() {
+        AppDataSync appDataSync;
+        synchronized (SyncManager.this) {
+          appDataSync = mAppDataSync;
+        }
+        if (appDataSync != null) {
+          long start = mLoadOlderMetrics.begin();
+          try {
+            boolean loaded = appDataSync.loadOlderSums();
+            mLoadOlderMetrics.end(start, true);
+            Log.d(TAG, loaded ? "Older sums loaded." : "No older sums to load.");
+          } catch (IOException e) {
+            mLoadOlderMetrics.end(start, false);
+            Log.e(TAG, "Unable to load older sums.", e);
+          }
+        }
+        onDone.run();
+      }
+    });
+  }
+
+  /**
+   * Clears the history on the device and forgets the log of this device in App Data, so that new
+   * answers start a new log at once. The device files are deleted on the batcher thread, or
+   * before the next answer is stored if that comes first. The answers of other devices are kept
+   * in App Data and come back with the next load. The forgotten log is deleted from App Data on
+   * the batcher thread after any write in flight, and by background syncs until it is gone; see
+   * {@link #scheduleSync()}. Until then a tombstone in {@link SyncState} keeps loads ignoring it,
+   * also after the process is restarted, and the delete is resumed by {@link #connect}.
+   */
+  void reset() {
+    // Discard pending batches before clearing the store; see writeBatch.
+    mSubmitBatcher.discardPending();
+    // The files are deleted on the batcher thread: the store may be held there by a long read.
+    mLocalStore.invalidate();
+    mStoreClearPending.set(true);
+    mSubmitBatcher.execute(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (mSubmitLock) {
+          clearStoreIfReset();
+        }
+      }
+    });
+    final AppDataSync appDataSync;
+    synchronized (this) {
+      appDataSync = mAppDataSync;
+      if (appDataSync == null) {
+        // Deleted once connected, if need be in the background.
+        AppDataSync.forget(mSyncState);
+        scheduleSync();
+        return;
+      }
+      appDataSync.reset();
+    }
+    deletePastSums(appDataSync);
+  }
+
+  /**
+   * Clears the store if {@link #reset()} has not done so yet. Called with {@link #mSubmitLock}
+   * held before answers are stored or reloaded, so that none given after the reset is cleared.
+   */
+  private void clearStoreIfReset() {
+    if (mStoreClearPending.getAndSet(false)) {
+      mLocalStore.clear();
+    }
+  }
+
+  /**
+   * Deletes the history forgotten by a reset on the batcher thread, if any. If the delete fails,
+   * it is left to {@link #scheduleSync()}.
+   */
+  private void deletePastSums(final AppDataSync appDataSync) {
+    mSubmitBatcher.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (deletePastSumsNow(appDataSync)) {
+          scheduleSync();
+        }
+      }
+    });
+  }
+
+  /**
+   * Deletes the history forgotten by a reset, if any, on the batcher thread, and returns whether
+   * it is still pending deletion.
+   */
+  private boolean deletePastSumsNow(AppDataSync appDataSync) {
+    if (!appDataSync.isDeletePending()) {
+      return false;
+    }
+    long start = mDeleteMetrics.begin();
+    boolean deleted = false;
+    try {
+      AppDataCleaner.Report report = appDataSync.deleteSums(
+          new AppDataCleaner.ProgressListener() {
+            @Override
+            public void onProgress(int completed, int total) {
+              Log.d(TAG, "Deleted " + completed + " of " + total + " stale files.");
+            }
+          });
+      deleted = report.failure == null;
+      if (deleted) {
+        Log.d(TAG, "Past sums deleted. " + report);
+      } else {
+        Log.e(TAG, report.toString(), report.failure);
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to delete App Data.", e);
+    }
+    mDeleteMetrics.end(start, deleted);
+    return appDataSync.isDeletePending();
+  }
+
+  /**
+   * Writes all pending answers to App Data in one batch, then deletes the history forgotten by a
+   * reset, if any, and tells {@code listener} whether anything is still pending. Does nothing but
+   * call back if not connected yet.
+   */
+  void syncPending(final SyncListener listener) {
+    mSubmitBatcher.execute(new Runnable() {
+      @Override
+      public void run() {
+        // Written here rather than flushed before: tasks queued earlier, such as the reload of
+        // unsynced answers by connect(), have run by now, so they are written too.
+        mSubmitBatcher.writeNow();
+        AppDataSync appDataSync;
+        synchronized (SyncManager.this) {
+          appDataSync = mAppDataSync;
+        }
+        boolean deletePending = appDataSync != null ? deletePastSumsNow(appDataSync)
+            : !mSyncState.getForgottenIds().isEmpty();
+        listener.onSynced(deletePending || mSubmitBatcher.hasPending());
+      }
+    });
+  }
+
+  /**
+   * Schedules a background sync if answers are waiting to be written to App Data or a reset
+   * history to be deleted, so that they are synced even if this process is killed before it
+   * syncs them itself. Called as the app leaves the foreground.
+   */
+  void scheduleSyncIfPending() {
+    if (mSubmitBatcher.hasPending() || !mSyncState.getForgottenIds().isEmpty()) {
+      scheduleSync();
+    }
+  }
+
+  /**
+   * Makes sure that pending answers and deletes are synced later. From API 21, {@link
+   * SyncJobService} syncs them once a network is available, even after the app has stopped or
+   * the device has rebooted. Before that, they are retried in this process, after a delay that
+   * doubles with each failure, from {@link #SYNC_RETRY_MIN_MS} up to {@link #SYNC_RETRY_MAX_MS}.
+   */
+  private void scheduleSync() {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+      SyncJobService.schedule(mContext);
+      return;
+    }
+    long delay;
+    synchronized (this) {
+      if (mSyncRetryScheduled) {
+        return;
+      }
+      mSyncRetryScheduled = true;
+      delay = Math.min(SYNC_RETRY_MIN_MS << Math.min(mSyncRetries++, 16), SYNC_RETRY_MAX_MS);
+    }
+    Log.d(TAG, "Retrying pending sync in " + delay + " ms.");
+    mSubmitBatcher.schedule(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (SyncManager.this) {
+          mSyncRetryScheduled = false;
+        }
+        syncPending(new SyncListener() {
+          @Override
+          public void onSynced(boolean workLeft) {
+            if (workLeft) {
+              scheduleSync();
+            } else {
+              synchronized (SyncManager.this) {
+                mSyncRetries = 0;
+              }
+            }
+          }
+        });
+      }
+    }, delay);
+  }
+
+  /**
+   * Writes the whole history to {@code outputStream} in {@code format}, oldest answer first, and
+   * closes it. Once signed in, the older answers that are only in App Data are written first,
+   * one segment per device log at a time, without storing them on the device. The export runs on
+   * the batcher thread, so the history is not replaced while it is read, one page at a time.
+   */
+  void exportHistory(final OutputStream outputStream, final HistoryTransfer.Format format,
+      final TransferListener listener) {
+    mSubmitBatcher.execute(new Runnable() {
+      @Override
+      public void run() {
+        IOException failure = null;
+        try (OutputStream out = outputStream) {
+          final AppDataSync appDataSync;
+          synchronized (SyncManager.this) {
+            appDataSync = mAppDataSync;
+          }
+          HistoryTransfer.OlderSums olderSums = null;
+          if (appDataSync != null) {
+            olderSums = new HistoryTransfer.OlderSums() {
+              @Override
+              public void read(HistoryTransfer.RecordSink sink) throws IOException {
+                appDataSync.readOlderSums(sink);
+              }
+            };
+          }
+          long count = HistoryTransfer.export(mLocalStore, olderSums, format, out, listener);
+          Log.d(TAG, "Exported " + count + " sums.");
+        } catch (IOException e) {
+          Log.e(TAG, "Unable to export the history.", e);
+          failure = e;
+        }
+        listener.onTransferEnded(failure);
+      }
+    });
+  }
+
+  /**
+   * Appends the answers in {@code inputStream}, a file written by {@link #exportHistory}, to the
+   * history and closes it. They are read on a background thread in batches of
+   * {@link #IMPORT_BATCH_SIZE}, and each batch is stored on the device and written to App Data
+   * like submitted answers, in a single write, before the next one is read. A batch that cannot
+   * be written stops the import; it is kept on the device and written with the next batch.
+   */
+  void importHistory(final InputStream inputStream, final TransferListener listener) {
+    mImportExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        IOException failure = null;
+        try (InputStream in = inputStream) {
+          final int version = mLocalStore.getVersion();
+          long count = HistoryTransfer.importSums(in, IMPORT_BATCH_SIZE,
+              new HistoryTransfer.BatchSink() {
+                @Override
+                public void write(List<Equation> batch) throws IOException {
+                  importBatch(batch, version);
+                }
+              }, listener);
+          Log.d(TAG, "Imported " + count + " sums.");
+        } catch (IOException e) {
+          Log.e(TAG, "Unable to import the history.", e);
+          failure = e;
+        }
+        listener.onTransferEnded(failure);
+      }
+    });
+  }
+
+  /**
+   * Stores the imported {@code batch} on the device and submits it, then waits until it has been
+   * written to App Data, so that only one batch is held at a time.
+   *
+   * @param version {@link LocalHistoryStore#getVersion()} when the import started.
+   */
+  private void importBatch(List<Equation> batch, int version) throws IOException {
+    synchronized (this) {
+      if (mAppDataSync == null) {
+        throw new IOException("Not signed in yet.");
+      }
+    }
+    if (mLocalStore.getVersion() != version) {
+      throw new IOException("The history was reset during the import.");
+    }
+    synchronized (mSubmitLock) {
+      clearStoreIfReset();
+      mLocalStore.appendAll(batch);
+      mSubmitBatcher.submitAll(batch);
+    }
+    for (int attempt = 1; ; attempt++) {
+      awaitBatcher();
+      if (!mSubmitBatcher.hasPending()) {
+        return;
+      }
+      if (attempt == IMPORT_WRITE_ATTEMPTS) {
+        throw new IOException("Unable to write imported sums to App Data.");
+      }
+      // Failed batches are only retried with the next write.
+      mSubmitBatcher.flush();
+    }
+  }
+
+  /**
+   * Waits until the tasks queued on the batcher thread so far, e.g. a write, have run.
+   */
+  private void awaitBatcher() throws IOException {
+    final CountDownLatch done = new CountDownLatch(1);
+    mSubmitBatcher.execute(new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    });
+    try {
+      done.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while writing imported sums.");
+    }
+  }
+
+  private void writeBatch(List<Equation> batch, int generation) throws IOException {
+    // Read before the batch is checked: a reset discards the batch before it clears the store, so
+    // if the batch is current, this is the version of the history it was taken from.
+    int version = mLocalStore.getVersion();
+    if (!mSubmitBatcher.isCurrent(generation)) {
+      return;
+    }
+    AppDataSync appDataSync;
+    synchronized (this) {
+      appDataSync = mAppDataSync;
+    }
+    if (appDataSync == null) {
+      throw new IOException("Not signed in yet.");
+    }
+    long start = mWriteMetrics.begin();
+    boolean written;
+    try {
+      written = appDataSync.writeSums(batch, version);
+      mWriteMetrics.end(start, true);
+    } catch (IOException e) {
+      mWriteMetrics.end(start, false);
+      Log.e(TAG, "Unable to write sums, will retry with the next batch.", e);
+      scheduleSync();
+      throw e;
+    }
+    if (!written) {
+      Log.d(TAG, "Sums of a cleared history discarded.");
+      return;
+    }
+    Log.d(TAG, "App data successfully written " + batch.size() + " sums");
+    try {
+      mLocalStore.addSynced(batch.size(), version);
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to record synced sums on the device.", e);
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import java.util.Set;
+
+/**
+ * State of the sync with App Data that is kept across processes. Implementations must be safe to
+ * use from several threads.
+ */
+interface SyncState {
+  /**
+   * Returns the id of the App Data file, or null if there is none yet.
+   */
+  String getFileId();
+
+  /**
+   * Sets the id of the App Data file; null forgets it.
+   */
+  void setFileId(String fileId);
+
+  /**
+   * Returns the {@link AppDataStore.FileInfo#getRevision() revision} of the App Data file the
+   * on-device history was last synced with, or null if it is not known.
+   */
+  String getSyncedRevision();
+
+  /**
+   * Sets the revision the on-device history is synced with; null forgets it, so the next load
+   * downloads the file.
+   */
+  void setSyncedRevision(String revision);
+
+  /**
+   * Returns the ids of the App Data files that resets have forgotten and that have not been
+   * deleted yet, as a new set. Until then, loads ignore them.
+   */
+  Set<String> getForgottenIds();
+
+  /**
+   * Sets the ids of the files forgotten by resets that have yet to be deleted.
+   */
+  void setForgottenIds(Set<String> fileIds);
+
+  /**
+   * Returns the id of this device, which names its log in App Data. It is created on first use
+   * and never changes.
+   */
+  String getDeviceId();
+}
@@ -0,0 +1,64 @@
+package drive.play.android.samples.com.drivedeletesample;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class AccuracyStatsTest {
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void add_countsAttemptsAndStreaksPerOperator() throws Exception {
+    AccuracyStats stats = AccuracyStats.of(Arrays.asList(
+        new Equation(3, "*", 4, 12),
+        new Equation(1, "+", 1, 2),
+        new Equation(9, "-", 7, 1),
+        new Equation(2, "*", 2, 4)));
+
+    assertEquals(4, stats.getOverall().getAttempts());
+    assertEquals(3, stats.getOverall().getCorrect());
+    assertEquals(1, stats.getOverall().getStreak());
+    assertEquals(2, stats.getOverall().getBestStreak());
+    assertEquals(2, stats.get(Operator.TIMES).getStreak());
+    assertEquals(0, stats.get(Operator.MINUS).getCorrect());
+    assertEquals(0, stats.get(Operator.DIVIDE).getAttempts());
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    stats.write(out);
+    assertEquals(stats.toString(),
+        AccuracyStats.read(new ByteArrayInputStream(out.toByteArray())).toString());
+  }
+
+  @Test
+  public void localHistoryStore_keepsStatsInSideFileAndRebuildsThem() throws Exception {
+    File directory = mFolder.newFolder();
+    LocalHistoryStore store = new LocalHistoryStore(directory);
+    store.append(new Equation(3, "*", 4, 12));
+    store.append(new Equation(9, "-", 7, 1));
+    assertEquals(1, store.getStats().getOverall().getCorrect());
+
+    // A new process reads the side file.
+    assertEquals(2, new LocalHistoryStore(directory).getStats().getOverall().getAttempts());
+
+    // A side file that does not cover every stored equation is rebuilt from the history.
+    try (FileOutputStream out = new FileOutputStream(new File(directory, "sums.stats"))) {
+      out.write(new byte[] {0, 0, 0, 1});
+    }
+    LocalHistoryStore restarted = new LocalHistoryStore(directory);
+    assertEquals(2, restarted.getStats().getOverall().getAttempts());
+
+    restarted.clear();
+    restarted.append(new Equation(1, "+", 1, 2));
+    assertEquals(1, restarted.getStats().getOverall().getAttempts());
+    assertEquals(1, new LocalHistoryStore(directory).getStats().getOverall().getStreak());
+  }
+}
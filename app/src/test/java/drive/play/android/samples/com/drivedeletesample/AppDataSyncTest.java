@@ -0,0 +1,416 @@
+package drive.play.android.samples.com.drivedeletesample;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AppDataSyncTest {
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  private FileAppDataStore mStore;
+
+  @Before
+  public void setUp() throws Exception {
+    mStore = new FileAppDataStore(mFolder.newFolder("appdata"));
+  }
+
+  @Test
+  public void writeSums_appendsToTailAndLoadsOnOtherDevicesOnlyWhenChanged() throws Exception {
+    AppDataSync writer = newSync("writer", new MemorySyncState(), 2);
+    writer.writeSums(Arrays.asList(new Equation(3, "*", 4, 12)), 0);
+    writer.writeSums(Arrays.asList(new Equation(9, "-", 7, 1)), 0);
+    // Manifest and one full segment.
+    assertEquals(2, mStore.listFiles().size());
+
+    LocalHistoryStore readerStore = new LocalHistoryStore(mFolder.newFolder("reader"));
+    AppDataSync reader = new AppDataSync(mStore, readerStore, new MemorySyncState(), 2);
+    assertTrue(reader.loadPastSums());
+    assertFalse(reader.loadPastSums());
+
+    writer.writeSums(Arrays.asList(new Equation(8, "/", 2, 4), new Equation(1, "+", 1, 2)), 0);
+    assertEquals(3, mStore.listFiles().size());
+    int reads = mStore.getCallCount();
+    assertTrue(reader.loadPastSums());
+    // Listing, manifest and the new segment only; the sealed segment is not downloaded again.
+    assertEquals(3, mStore.getCallCount() - reads);
+    assertEquals("[3 * 4 = 12 (correct), 9 - 7 = 1 (wrong), 8 / 2 = 4 (correct), "
+        + "1 + 1 = 2 (correct)]", readerStore.load().toString());
+  }
+
+  @Test
+  public void loadPastSums_afterRestartReadsManifestWhileListing() throws Exception {
+    AppDataSync writer = newSync("writer", new MemorySyncState(), 2);
+    writer.writeSums(Arrays.asList(new Equation(3, "*", 4, 12), new Equation(9, "-", 7, 1)), 0);
+    LocalHistoryStore readerStore = new LocalHistoryStore(mFolder.newFolder("reader"));
+    MemorySyncState readerState = new MemorySyncState();
+    assertTrue(new AppDataSync(mStore, readerStore, readerState, 2).loadPastSums());
+
+    // The tail is sealed and compressed, and the manifest rewritten, while the reader is gone.
+    writer.writeSums(Arrays.asList(new Equation(8, "/", 2, 4)), 0);
+    AppDataSync restarted = new AppDataSync(mStore, readerStore, readerState, 2);
+    int reads = mStore.getCallCount();
+    assertTrue(restarted.loadPastSums());
+    // The prefetched manifest is current, so it is not read again after the listing.
+    assertEquals(3, mStore.getCallCount() - reads);
+    assertEquals("[3 * 4 = 12 (correct), 9 - 7 = 1 (wrong), 8 / 2 = 4 (correct)]",
+        readerStore.load().toString());
+  }
+
+  @Test
+  public void loadPastSums_readsNewestSegmentsFirstAndOlderOnesOnDemand() throws Exception {
+    AppDataSync writer = newSync("writer", new MemorySyncState(), 2);
+    for (int i = 0; i < 7; i++) {
+      writer.writeSums(Arrays.asList(new Equation(i, "+", 1, i + 1)), 0);
+    }
+    // Three sealed segments of two sums and the tail.
+    LocalHistoryStore readerStore = new LocalHistoryStore(mFolder.newFolder("reader"));
+    AppDataSync reader = new AppDataSync(mStore, readerStore, new MemorySyncState(), 2, 2);
+
+    int reads = mStore.getCallCount();
+    assertTrue(reader.loadPastSums());
+    // Listing, manifest, the newest sealed segment and the tail.
+    assertEquals(4, mStore.getCallCount() - reads);
+    assertEquals(4, readerStore.getFirstIndex());
+    assertEquals("[4 + 1 = 5 (correct), 5 + 1 = 6 (correct), 6 + 1 = 7 (correct)]",
+        readerStore.load().toString());
+    assertEquals(6, readerStore.readPage(Integer.MAX_VALUE, 1).start);
+
+    int version = readerStore.getVersion();
+    assertTrue(reader.loadOlderSums());
+    assertTrue(reader.loadOlderSums());
+    assertFalse(reader.loadOlderSums());
+    assertEquals(version, readerStore.getVersion());
+    assertEquals(7, readerStore.load().size());
+    assertEquals(7, readerStore.getStats().getOverall().getAttempts());
+
+    // Later loads stay incremental.
+    writer.writeSums(Arrays.asList(new Equation(7, "+", 1, 8)), 0);
+    assertTrue(reader.loadPastSums());
+    assertEquals(8, readerStore.load().size());
+    assertEquals(0, readerStore.getFirstIndex());
+  }
+
+  @Test
+  public void readOlderSums_mergesSegmentsThatAreNotStored() throws Exception {
+    AppDataSync first = newSync("first", new MemorySyncState(), 2);
+    AppDataSync second = newSync("second", new MemorySyncState(), 2);
+    for (int i = 0; i < 5; i++) {
+      first.writeSums(Arrays.asList(new Equation(i, "+", 1, i + 1)), 0);
+      second.writeSums(Arrays.asList(new Equation(i, "-", 1, i - 1)), 0);
+    }
+    LocalHistoryStore readerStore = new LocalHistoryStore(mFolder.newFolder("reader"));
+    AppDataSync reader = new AppDataSync(mStore, readerStore, new MemorySyncState(), 2, 2);
+    assertTrue(reader.loadPastSums());
+    assertTrue(readerStore.getFirstIndex() > 0);
+    final List<Equation> sums = new ArrayList<>();
+    reader.readOlderSums(new HistoryTransfer.RecordSink() {
+      @Override
+      public void write(int record) {
+        sums.add(Equation.decode(record));
+      }
+    });
+    assertEquals(readerStore.getFirstIndex(), sums.size());
+    sums.addAll(readerStore.load());
+
+    LocalHistoryStore wholeStore = new LocalHistoryStore(mFolder.newFolder("whole"));
+    new AppDataSync(mStore, wholeStore, new MemorySyncState(), 2).loadPastSums();
+    assertEquals(0, wholeStore.getFirstIndex());
+    assertEquals(wholeStore.load().toString(), sums.toString());
+  }
+
+  @Test
+  public void writeSums_keepsLegacyTextFileAsReadOnlyLog() throws Exception {
+    AppDataStore.Contents contents = mStore.createContents();
+    try (OutputStream out = contents.getOutputStream()) {
+      out.write("9 - 7 = 1 (wrong)\n3 * 4 = 12 (correct)\n".getBytes("UTF-8"));
+    }
+    MemorySyncState state = new MemorySyncState();
+    state.setFileId(mStore.createFile("Equation File", "text/plain", contents));
+
+    newSync("device", state).writeSums(Arrays.asList(new Equation(1, "+", 1, 2)), 0);
+    // The legacy file, and the manifest and segment of the new log.
+    assertEquals(3, mStore.listFiles().size());
+
+    LocalHistoryStore readerStore = new LocalHistoryStore(mFolder.newFolder("reader"));
+    new AppDataSync(mStore, readerStore, new MemorySyncState()).loadPastSums();
+    assertEquals("[3 * 4 = 12 (correct), 9 - 7 = 1 (wrong), 1 + 1 = 2 (correct)]",
+        readerStore.load().toString());
+  }
+
+  @Test
+  public void writeSums_fromTwoDevicesMergesTheirLogsInTheSameOrderEverywhere() throws Exception {
+    final AppDataSync first = newSync("first", new MemorySyncState(), 2);
+    final AppDataSync second = newSync("second", new MemorySyncState(), 2);
+    Thread other = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < 5; i++) {
+            second.writeSums(Arrays.asList(new Equation(i, "-", 1, i - 1)), 0);
+          }
+        } catch (Exception e) {
+          throw new AssertionError(e);
+        }
+      }
+    });
+    other.start();
+    for (int i = 0; i < 5; i++) {
+      first.writeSums(Arrays.asList(new Equation(i, "+", 1, i + 1)), 0);
+    }
+    other.join();
+
+    LocalHistoryStore oneStore = new LocalHistoryStore(mFolder.newFolder("one"));
+    new AppDataSync(mStore, oneStore, new MemorySyncState(), 2, 1).loadPastSums();
+    LocalHistoryStore otherStore = new LocalHistoryStore(mFolder.newFolder("other"));
+    AppDataSync otherReader = new AppDataSync(mStore, otherStore, new MemorySyncState(), 2, 1);
+    otherReader.loadPastSums();
+    while (otherReader.loadOlderSums()) {
+    }
+
+    List<Equation> merged = otherStore.load();
+    assertEquals(10, merged.size());
+    assertEquals(0, otherStore.getFirstIndex());
+    // Each device's sums keep their order.
+    assertEquals("[0 + 1 = 1 (correct), 1 + 1 = 2 (correct), 2 + 1 = 3 (correct), "
+        + "3 + 1 = 4 (correct), 4 + 1 = 5 (correct)]", only(merged, Operator.PLUS).toString());
+    assertEquals("[0 - 1 = -1 (correct), 1 - 1 = 0 (correct), 2 - 1 = 1 (correct), "
+        + "3 - 1 = 2 (correct), 4 - 1 = 3 (correct)]", only(merged, Operator.MINUS).toString());
+    // A reader that has only the newest sums has them in the same order.
+    List<Equation> newest = oneStore.load();
+    assertEquals(newest.toString(),
+        merged.subList(oneStore.getFirstIndex(), merged.size()).toString());
+  }
+
+  @Test
+  public void loadPastSums_addsNewerSumsWithoutRewritingTheHistory() throws Exception {
+    // Sums written within the same second are ordered by device id.
+    AppDataSync first = newSync("a", new MemorySyncState("a"));
+    first.writeSums(Arrays.asList(new Equation(3, "*", 4, 12)), 0);
+    File folder = mFolder.newFolder("b");
+    LocalHistoryStore store = new LocalHistoryStore(folder);
+    AppDataSync sync = new AppDataSync(mStore, store, new MemorySyncState("b"));
+    assertTrue(sync.loadPastSums());
+    int version = store.getVersion();
+
+    // Stored and synced by this device, then newer sums from another one.
+    Equation sum = new Equation(9, "-", 7, 1);
+    store.append(sum);
+    sync.writeSums(Arrays.asList(sum), version);
+    store.addSynced(1, version);
+    AppDataSync third = newSync("c", new MemorySyncState("c"));
+    third.writeSums(Arrays.asList(new Equation(1, "+", 1, 2)), 0);
+    assertTrue(sync.loadPastSums());
+
+    assertEquals(version, store.getVersion());
+    assertEquals(3, store.getSyncedCount());
+    LocalHistoryStore merged = new LocalHistoryStore(mFolder.newFolder("merged"));
+    new AppDataSync(mStore, merged, new MemorySyncState()).loadPastSums();
+    assertEquals(merged.load().toString(), store.load().toString());
+    assertEquals(merged.getStats().toString(), store.getStats().toString());
+
+    // Sorts before the sum of the third device unless written a second later; either way the
+    // history is the same as that of a full merge.
+    first.writeSums(Arrays.asList(new Equation(8, "/", 2, 4)), 0);
+    assertTrue(sync.loadPastSums());
+    new AppDataSync(mStore, merged, new MemorySyncState()).loadPastSums();
+    assertEquals(merged.load().toString(), store.load().toString());
+
+    // The appended mirror is read back after a restart, and newer sums are still appended.
+    LocalHistoryStore restarted = new LocalHistoryStore(folder);
+    third.writeSums(Arrays.asList(new Equation(2, "+", 2, 4)), 0);
+    assertTrue(new AppDataSync(mStore, restarted, new MemorySyncState("b")).loadPastSums());
+    assertEquals(0, restarted.getVersion());
+    new AppDataSync(mStore, merged, new MemorySyncState()).loadPastSums();
+    assertEquals(merged.load().toString(), restarted.load().toString());
+    assertEquals(merged.getStats().toString(), restarted.getStats().toString());
+  }
+
+  @Test
+  public void loadPastSums_watchesManifestAndTailOfOtherDevicesOnly() throws Exception {
+    MemorySyncState state = new MemorySyncState();
+    AppDataSync writer = newSync("writer", state, 2);
+    writer.writeSums(Arrays.asList(new Equation(1, "+", 1, 2), new Equation(2, "+", 2, 4)), 0);
+    AppDataSync reader = newSync("reader", new MemorySyncState(), 2);
+    assertNull(reader.getWatchedFileIds());
+
+    reader.writeSums(Arrays.asList(new Equation(3, "+", 3, 6)), 0);
+    reader.loadPastSums();
+    writer.loadPastSums();
+
+    assertEquals(2, reader.getWatchedFileIds().size());
+    assertEquals(state.getFileId(), reader.getWatchedFileIds().get(0));
+    assertEquals(2, writer.getWatchedFileIds().size());
+    assertFalse(writer.getWatchedFileIds().contains(state.getFileId()));
+  }
+
+  @Test
+  public void reset_forgetsFileAndDeleteSumsRemovesIt() throws Exception {
+    MemorySyncState state = new MemorySyncState();
+    AppDataSync sync = newSync("device", state);
+    sync.writeSums(Arrays.asList(new Equation(1, "+", 1, 2)), 0);
+
+    sync.reset();
+    assertNull(state.getFileId());
+    // A load before the delete must not bring the forgotten file back.
+    assertTrue(sync.loadPastSums());
+    assertNull(state.getFileId());
+    sync.deleteSums(null);
+
+    assertTrue(mStore.listFiles().isEmpty());
+  }
+
+  @Test
+  public void reset_staysPendingAcrossRestartUntilDeleteSums() throws Exception {
+    MemorySyncState state = new MemorySyncState();
+    LocalHistoryStore localStore = new LocalHistoryStore(mFolder.newFolder("device"));
+    AppDataSync sync = new AppDataSync(mStore, localStore, state);
+    sync.writeSums(Arrays.asList(new Equation(1, "+", 1, 2)), 0);
+    localStore.clear();
+    String fileId = state.getFileId();
+    sync.reset();
+    assertEquals(Collections.singleton(fileId), state.getForgottenIds());
+
+    // The process is killed before the delete; the next one must still ignore the old log.
+    AppDataSync restarted = new AppDataSync(mStore, localStore, state);
+    restarted.writeSums(Arrays.asList(new Equation(2, "+", 2, 4)), localStore.getVersion());
+    assertTrue(restarted.loadPastSums());
+    assertEquals("[2 + 2 = 4 (correct)]", localStore.load().toString());
+    assertTrue(restarted.isDeletePending());
+
+    assertEquals(0, restarted.deleteSums(null).failedIds.size());
+    assertFalse(restarted.isDeletePending());
+    // The new log only.
+    assertEquals(2, mStore.listFiles().size());
+  }
+
+  @Test
+  public void writeSums_skipsSumsOfClearedHistory() throws Exception {
+    LocalHistoryStore localStore = new LocalHistoryStore(mFolder.newFolder("device"));
+    AppDataSync sync = new AppDataSync(mStore, localStore, new MemorySyncState());
+    int version = localStore.getVersion();
+    localStore.clear();
+    sync.reset();
+
+    assertFalse(sync.writeSums(Arrays.asList(new Equation(1, "+", 1, 2)), version));
+    assertTrue(mStore.listFiles().isEmpty());
+  }
+
+  @Test
+  public void reset_ignoresAndDeletesOnlyTheForgottenLog() throws Exception {
+    MemorySyncState state = new MemorySyncState();
+    LocalHistoryStore localStore = new LocalHistoryStore(mFolder.newFolder("device"));
+    AppDataSync sync = new AppDataSync(mStore, localStore, state);
+    sync.writeSums(Arrays.asList(new Equation(1, "+", 1, 2)), 0);
+    localStore.clear();
+    sync.reset();
+    // Another device starts its log after the reset, while the delete is pending.
+    MemorySyncState otherState = new MemorySyncState();
+    LocalHistoryStore otherStore = new LocalHistoryStore(mFolder.newFolder("other"));
+    AppDataSync other = new AppDataSync(mStore, otherStore, otherState);
+    other.writeSums(Arrays.asList(new Equation(2, "+", 2, 4)), 0);
+
+    assertTrue(sync.loadPastSums());
+    assertEquals("[2 + 2 = 4 (correct)]", localStore.load().toString());
+    AppDataCleaner.Report report = sync.deleteSums(null);
+
+    // The manifest and segment of the forgotten log.
+    assertEquals(2, report.getDeletedCount());
+    assertFalse(sync.isDeletePending());
+    assertEquals(2, mStore.listFiles().size());
+    other.loadPastSums();
+    assertEquals("[2 + 2 = 4 (correct)]", otherStore.load().toString());
+  }
+
+  @Test
+  public void deleteSums_afterResetOnOneDeviceKeepsTheLogOfTheOther() throws Exception {
+    MemorySyncState state = new MemorySyncState();
+    LocalHistoryStore localStore = new LocalHistoryStore(mFolder.newFolder("device"));
+    AppDataSync sync = new AppDataSync(mStore, localStore, state);
+    LocalHistoryStore otherStore = new LocalHistoryStore(mFolder.newFolder("other"));
+    AppDataSync other = new AppDataSync(mStore, otherStore, new MemorySyncState());
+    sync.writeSums(Arrays.asList(new Equation(1, "+", 1, 2)), 0);
+    other.writeSums(Arrays.asList(new Equation(2, "+", 2, 4)), 0);
+    assertTrue(other.loadPastSums());
+    assertEquals(2, otherStore.load().size());
+
+    localStore.clear();
+    sync.reset();
+    assertEquals(2, sync.deleteSums(null).getDeletedCount());
+
+    assertEquals(2, mStore.listFiles().size());
+    assertTrue(sync.loadPastSums());
+    assertEquals("[2 + 2 = 4 (correct)]", localStore.load().toString());
+    assertTrue(other.loadPastSums());
+    assertEquals("[2 + 2 = 4 (correct)]", otherStore.load().toString());
+  }
+
+  @Test
+  public void deleteSums_removesOrphansButKeepsOtherLogsAndHistoryStartedAfterReset()
+      throws Exception {
+    // Histories of two other devices, a segment left behind by a failed write and one that a
+    // write in flight has not listed yet.
+    newSync("lost1", new MemorySyncState()).writeSums(Arrays.asList(new Equation(1, "+", 1, 2)), 0);
+    newSync("lost2", new MemorySyncState()).writeSums(Arrays.asList(new Equation(2, "+", 2, 4)), 0);
+    String orphanId =
+        mStore.createFile("Equation Segment", "application/octet-stream", mStore.createContents());
+    mStore.age(orphanId, AppDataSync.ORPHAN_MIN_AGE_MS);
+    mStore.createFile("Equation Segment", "application/octet-stream", mStore.createContents());
+    MemorySyncState state = new MemorySyncState();
+    AppDataSync sync = newSync("device", state);
+    sync.writeSums(Arrays.asList(new Equation(3, "+", 3, 6)), 0);
+    sync.reset();
+    sync.writeSums(Arrays.asList(new Equation(4, "+", 4, 8)), 0);
+    final AtomicInteger progress = new AtomicInteger();
+
+    AppDataCleaner.Report report = sync.deleteSums(new AppDataCleaner.ProgressListener() {
+      @Override
+      public void onProgress(int completed, int total) {
+        progress.incrementAndGet();
+      }
+    });
+
+    assertEquals(3, report.total);
+    assertEquals(3, report.getDeletedCount());
+    assertEquals(3, progress.get());
+    assertEquals(7, mStore.listFiles().size());
+    assertFalse(sync.isDeletePending());
+    LocalHistoryStore readerStore = new LocalHistoryStore(mFolder.newFolder("reader"));
+    new AppDataSync(mStore, readerStore, new MemorySyncState()).loadPastSums();
+    assertEquals(3, readerStore.load().size());
+  }
+
+  private static List<Equation> only(List<Equation> sums, Operator operator) {
+    List<Equation> matching = new ArrayList<>();
+    for (Equation sum : sums) {
+      if (sum.getOperator() == operator) {
+        matching.add(sum);
+      }
+    }
+    return matching;
+  }
+
+  private AppDataSync newSync(String device, SyncState state) throws Exception {
+    return newSync(device, state, AppDataSync.SEGMENT_CAPACITY);
+  }
+
+  private AppDataSync newSync(String device, SyncState state, int segmentCapacity)
+      throws Exception {
+    return new AppDataSync(
+        mStore, new LocalHistoryStore(mFolder.newFolder(device)), state, segmentCapacity);
+  }
+}
@@ -0,0 +1,89 @@
+package drive.play.android.samples.com.drivedeletesample;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EquationCodecTest {
+  @Test
+  public void writeThenRead_roundTripsEquations() throws Exception {
+    List<Equation> equations = new ArrayList<>();
+    equations.add(new Equation(3, "*", 4, 12));
+    equations.add(new Equation(9, "-", 7, -5));
+    equations.add(new Equation(8, "/", 3, 2));
+    equations.add(new Equation(0, "+", 0, 999));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    EquationCodec.write(out, equations);
+    assertEquals(EquationCodec.HEADER_SIZE + 4 * EquationCodec.RECORD_SIZE, out.size());
+    assertTrue(EquationCodec.isCurrentHeader(out.toByteArray()));
+
+    List<Equation> read = EquationCodec.read(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(equations.size(), read.size());
+    for (int i = 0; i < equations.size(); i++) {
+      assertEquals(equations.get(i).toString(), read.get(i).toString());
+    }
+  }
+
+  @Test
+  public void writeCompressed_roundTripsAndShrinksHistory() throws Exception {
+    SplitMixRandom random = new SplitMixRandom(7);
+    List<Equation> equations = new ArrayList<>();
+    for (int i = 0; i < 1024; i++) {
+      int question = EquationEngine.nextQuestion(random);
+      equations.add(new Equation(EquationEngine.p1Of(question), EquationEngine.operatorOf(question),
+          EquationEngine.p2Of(question), EquationEngine.expected(question)));
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    EquationCodec.writeCompressed(out, equations);
+    assertTrue(out.size() < EquationCodec.RECORD_SIZE * equations.size() / 2);
+    assertEquals(equations.toString(),
+        EquationCodec.read(new ByteArrayInputStream(out.toByteArray())).toString());
+  }
+
+  @Test
+  public void writeLog_roundTripsEntriesAndReadsAsEquations() throws Exception {
+    long[] entries = {
+        EquationCodec.logEntry(new Equation(3, "*", 4, 12).encode(), 1500000000L),
+        EquationCodec.logEntry(new Equation(9, "-", 7, 1).encode(), 0xFFFFFFFFL),
+    };
+
+    ByteBuffer log = ByteBuffer.allocate(EquationCodec.logSize(2));
+    EquationCodec.putLog(log, entries, 0, 2);
+    log.flip();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    EquationCodec.writeCompressed(out, log);
+    assertFalse(log.hasRemaining());
+    assertArrayEquals(entries,
+        EquationCodec.readLog(new ByteArrayInputStream(out.toByteArray())));
+    assertEquals(0xFFFFFFFFL, EquationCodec.secondsOf(entries[1]));
+
+    log.clear();
+    EquationCodec.putLog(log, entries, 1, 2);
+    assertEquals(EquationCodec.logSize(1), log.position());
+    // Readers of equations skip the times.
+    assertEquals("[9 - 7 = 1 (wrong)]", EquationCodec.read(
+        new ByteArrayInputStream(log.array(), 0, log.position())).toString());
+  }
+
+  @Test
+  public void read_migratesLegacyTextNewestFirst() throws Exception {
+    String legacy = "3 * 4 = 12 (correct)\n9 - 7 = 1 (wrong)\n";
+
+    List<Equation> read = EquationCodec.read(new ByteArrayInputStream(legacy.getBytes("UTF-8")));
+
+    assertEquals(2, read.size());
+    assertEquals("9 - 7 = 1 (wrong)", read.get(0).toString());
+    assertEquals("3 * 4 = 12 (correct)", read.get(1).toString());
+  }
+}
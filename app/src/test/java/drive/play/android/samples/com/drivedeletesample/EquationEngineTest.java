@@ -0,0 +1,53 @@
+package drive.play.android.samples.com.drivedeletesample;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EquationEngineTest {
+  @Test
+  public void generateParallel_matchesAcrossThreadCountsAndNeverDividesByZero() throws Exception {
+    int[] single = new int[100000];
+    int[] parallel = new int[single.length];
+    ExecutorService oneThread = Executors.newSingleThreadExecutor();
+    ExecutorService fourThreads = Executors.newFixedThreadPool(4);
+    try {
+      EquationEngine.generateParallel(single, 0, single.length, new SplitMixRandom(42), oneThread);
+      EquationEngine.generateParallel(
+          parallel, 0, parallel.length, new SplitMixRandom(42), fourThreads);
+    } finally {
+      oneThread.shutdown();
+      fourThreads.shutdown();
+    }
+
+    assertArrayEquals(single, parallel);
+    for (int question : parallel) {
+      assertTrue(EquationEngine.isAskable(question));
+    }
+  }
+
+  @Test
+  public void grade_countsCorrectAnswersAndPacksRecords() {
+    int[] questions = {
+        EquationEngine.question(3, Operator.TIMES, 4),
+        EquationEngine.question(9, Operator.MINUS, 7),
+        EquationEngine.question(7, Operator.DIVIDE, 2),
+    };
+    int[] answers = {12, 1, 3};
+    int[] records = new int[questions.length];
+
+    int correct = EquationEngine.grade(questions, answers, 0, questions.length, records);
+
+    assertEquals(2, correct);
+    assertEquals(Arrays.asList("3 * 4 = 12 (correct)", "9 - 7 = 1 (wrong)", "7 / 2 = 3 (correct)"),
+        Arrays.asList(Equation.decode(records[0]).toString(),
+            Equation.decode(records[1]).toString(), Equation.decode(records[2]).toString()));
+    assertEquals(new Equation(3, "*", 4, 12).encode(), records[0]);
+  }
+}
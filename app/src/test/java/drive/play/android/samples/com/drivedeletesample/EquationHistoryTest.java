@@ -0,0 +1,40 @@
+package drive.play.android.samples.com.drivedeletesample;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class EquationHistoryTest {
+  @Test
+  public void get_returnsNewestFirstAcrossBothEnds() {
+    EquationHistory history = new EquationHistory();
+    history.addNewest(3);
+    history.addNewest(4);
+    int[] older = new int[200];
+    for (int i = 0; i < older.length; i++) {
+      older[i] = 100 + i;
+    }
+    history.addOldest(older, 0, older.length);
+    for (int i = 0; i < 100; i++) {
+      history.addNewest(1000 + i);
+    }
+
+    assertEquals(302, history.size());
+    assertEquals(1099, history.get(0));
+    assertEquals(1000, history.get(99));
+    assertEquals(4, history.get(100));
+    assertEquals(3, history.get(101));
+    assertEquals(299, history.get(102));
+    assertEquals(100, history.get(301));
+  }
+
+  @Test
+  public void format_matchesToString() {
+    Equation equation = new Equation(9, "-", 7, -5);
+    StringBuilder out = new StringBuilder();
+
+    Equation.format(equation.encode(), out);
+
+    assertEquals(equation.toString(), out.toString());
+  }
+}
@@ -0,0 +1,340 @@
+package drive.play.android.samples.com.drivedeletesample;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link AppDataStore} that keeps files in a local directory, standing in for Drive in tests and
+ * load tests on a plain JVM.
+ *
+ * <p>Every call that would reach Drive first waits for the configured latency plus a random
+ * jitter, then fails with an {@link IOException} with the configured probability. Opened contents
+ * are a working copy of the file that replaces it on commit, like Drive contents.
+ */
+class FileAppDataStore implements AppDataStore {
+  private static final String CONTENTS_SUFFIX = ".bin";
+  private static final String METADATA_SUFFIX = ".properties";
+
+  private final File mDirectory;
+  private final long mLatencyMillis;
+  private final long mJitterMillis;
+  private final double mFailureRate;
+  private final Random mRandom;
+
+  private final AtomicInteger mCalls = new AtomicInteger();
+  private final AtomicInteger mFailures = new AtomicInteger();
+
+  /** Last modification time handed out, so every commit gets a new one. Guarded by this. */
+  private long mLastModified;
+
+  /**
+   * Creates a store without latency or failures.
+   */
+  FileAppDataStore(File directory) {
+    this(directory, 0, 0, 0, 0);
+  }
+
+  FileAppDataStore(
+      File directory, long latencyMillis, long jitterMillis, double failureRate, long seed) {
+    mDirectory = directory;
+    mLatencyMillis = latencyMillis;
+    mJitterMillis = jitterMillis;
+    mFailureRate = failureRate;
+    mRandom = new Random(seed);
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IllegalArgumentException("Unable to create " + directory);
+    }
+  }
+
+  /**
+   * Returns the number of calls made, including failed ones.
+   */
+  int getCallCount() {
+    return mCalls.get();
+  }
+
+  /**
+   * Returns the number of calls that failed with an injected failure.
+   */
+  int getFailureCount() {
+    return mFailures.get();
+  }
+
+  /**
+   * Moves the modification time of the file {@code fileId} back by {@code millis}, as if it had
+   * been written that long ago.
+   */
+  synchronized void age(String fileId, long millis) throws IOException {
+    Properties properties = new Properties();
+    try (InputStream in = new FileInputStream(metadataFile(fileId))) {
+      properties.load(in);
+    }
+    long modified = Long.parseLong(properties.getProperty("modified"));
+    properties.setProperty("modified", Long.toString(modified - millis));
+    try (OutputStream out = new FileOutputStream(metadataFile(fileId))) {
+      properties.store(out, null);
+    }
+  }
+
+  @Override
+  public List<FileInfo> listFiles() throws IOException {
+    simulateCall("listFiles");
+    List<FileInfo> files = new ArrayList<>();
+    File[] metadataFiles = mDirectory.listFiles();
+    if (metadataFiles != null) {
+      for (File file : metadataFiles) {
+        String name = file.getName();
+        if (name.endsWith(METADATA_SUFFIX)) {
+          files.add(readInfo(name.substring(0, name.length() - METADATA_SUFFIX.length())));
+        }
+      }
+    }
+    return files;
+  }
+
+  @Override
+  public boolean isSameFile(String fileId, String otherFileId) {
+    return fileId.equals(otherFileId);
+  }
+
+  @Override
+  public Contents createContents() throws IOException {
+    simulateCall("createContents");
+    return new FileContents(null, File.createTempFile("contents", ".tmp", mDirectory), false);
+  }
+
+  @Override
+  public String createFile(String title, String mimeType, Contents contents) throws IOException {
+    simulateCall("createFile");
+    FileContents fileContents = (FileContents) contents;
+    String fileId = UUID.randomUUID().toString();
+    fileContents.close();
+    if (!fileContents.mWorkingFile.renameTo(contentsFile(fileId))) {
+      throw new IOException("Unable to create " + fileId);
+    }
+    writeInfo(fileId, title);
+    return fileId;
+  }
+
+  @Override
+  public Contents openFile(String fileId, boolean writable) throws IOException {
+    simulateCall("openFile");
+    File file = contentsFile(fileId);
+    if (!file.exists()) {
+      throw new IOException("No such file: " + fileId);
+    }
+    File workingFile = File.createTempFile(fileId, ".tmp", mDirectory);
+    try (FileChannel in = new FileInputStream(file).getChannel();
+        FileChannel out = new FileOutputStream(workingFile).getChannel()) {
+      in.transferTo(0, in.size(), out);
+    }
+    return new FileContents(fileId, workingFile, !writable);
+  }
+
+  @Override
+  public void commitContents(Contents contents) throws IOException {
+    FileContents fileContents = (FileContents) contents;
+    try {
+      simulateCall("commitContents");
+    } catch (IOException e) {
+      discardContents(contents);
+      throw e;
+    }
+    fileContents.close();
+    String fileId = fileContents.mFileId;
+    synchronized (this) {
+      if (!contentsFile(fileId).exists()
+          || !fileContents.mWorkingFile.renameTo(contentsFile(fileId))) {
+        fileContents.mWorkingFile.delete();
+        throw new IOException("Unable to commit " + fileId);
+      }
+      writeInfo(fileId, readInfo(fileId).title);
+    }
+  }
+
+  @Override
+  public void discardContents(Contents contents) {
+    FileContents fileContents = (FileContents) contents;
+    try {
+      fileContents.close();
+    } catch (IOException e) {
+      // The working copy is deleted either way.
+    }
+    fileContents.mWorkingFile.delete();
+  }
+
+  @Override
+  public void delete(String fileId) throws IOException {
+    simulateCall("delete");
+    synchronized (this) {
+      boolean existed = metadataFile(fileId).delete();
+      contentsFile(fileId).delete();
+      if (!existed) {
+        throw new IOException("No such file: " + fileId);
+      }
+    }
+  }
+
+  private void simulateCall(String operation) throws IOException {
+    mCalls.incrementAndGet();
+    long latency;
+    boolean fail;
+    synchronized (mRandom) {
+      latency = mLatencyMillis
+          + (mJitterMillis > 0 ? (long) (mRandom.nextDouble() * mJitterMillis) : 0);
+      fail = mRandom.nextDouble() < mFailureRate;
+    }
+    if (latency > 0) {
+      try {
+        Thread.sleep(latency);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(operation + " interrupted");
+      }
+    }
+    if (fail) {
+      mFailures.incrementAndGet();
+      throw new IOException("Injected failure in " + operation);
+    }
+  }
+
+  private synchronized long nextModified() {
+    mLastModified = Math.max(System.currentTimeMillis(), mLastModified + 1);
+    return mLastModified;
+  }
+
+  private File contentsFile(String fileId) {
+    return new File(mDirectory, fileId + CONTENTS_SUFFIX);
+  }
+
+  private File metadataFile(String fileId) {
+    return new File(mDirectory, fileId + METADATA_SUFFIX);
+  }
+
+  private synchronized FileInfo readInfo(String fileId) throws IOException {
+    Properties properties = new Properties();
+    try (InputStream in = new FileInputStream(metadataFile(fileId))) {
+      properties.load(in);
+    }
+    return new FileInfo(fileId, properties.getProperty("title"),
+        Long.parseLong(properties.getProperty("modified")), properties.getProperty("md5"),
+        contentsFile(fileId).length());
+  }
+
+  private synchronized void writeInfo(String fileId, String title) throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty("title", title);
+    properties.setProperty("modified", Long.toString(nextModified()));
+    properties.setProperty("md5", md5(contentsFile(fileId)));
+    try (OutputStream out = new FileOutputStream(metadataFile(fileId))) {
+      properties.store(out, null);
+    }
+  }
+
+  private static String md5(File file) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    byte[] buffer = new byte[8192];
+    try (InputStream in = new FileInputStream(file)) {
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * A working copy of a file, or of a file still to be created if the file id is null.
+   */
+  private static class FileContents implements Contents {
+    private final String mFileId;
+    private final File mWorkingFile;
+    private final boolean mReadOnly;
+    private final RandomAccessFile mFile;
+
+    FileContents(String fileId, File workingFile, boolean readOnly) throws IOException {
+      mFileId = fileId;
+      mWorkingFile = workingFile;
+      mReadOnly = readOnly;
+      mFile = new RandomAccessFile(workingFile, "rw");
+    }
+
+    @Override
+    public long size() throws IOException {
+      return mFile.length();
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+      return mFile.getChannel().read(dst, position);
+    }
+
+    @Override
+    public void write(ByteBuffer src, long position) throws IOException {
+      checkWritable();
+      while (src.hasRemaining()) {
+        position += mFile.getChannel().write(src, position);
+      }
+    }
+
+    @Override
+    public void truncate(long size) throws IOException {
+      checkWritable();
+      mFile.getChannel().truncate(size);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+      if (!mReadOnly) {
+        throw new IllegalStateException("Streams are only available for read-only contents.");
+      }
+      mFile.seek(0);
+      return Channels.newInputStream(mFile.getChannel());
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+      if (mFileId != null) {
+        throw new IllegalStateException("Streams are only available for new contents.");
+      }
+      mFile.seek(0);
+      return Channels.newOutputStream(mFile.getChannel());
+    }
+
+    void close() throws IOException {
+      mFile.close();
+    }
+
+    private void checkWritable() {
+      if (mReadOnly) {
+        throw new IllegalStateException("Contents are read-only.");
+      }
+    }
+  }
+}
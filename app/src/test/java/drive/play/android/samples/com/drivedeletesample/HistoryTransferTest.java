@@ -0,0 +1,109 @@
+package drive.play.android.samples.com.drivedeletesample;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistoryTransferTest {
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  private static final List<Equation> SUMS = Arrays.asList(new Equation(3, "*", 4, 12),
+      new Equation(2, "-", 7, -5), new Equation(8, "/", 2, 5), new Equation(1, "+", 1, 2),
+      new Equation(9, "+", 9, 18));
+
+  private final List<Integer> mBatchSizes = new ArrayList<>();
+  private final List<Equation> mImported = new ArrayList<>();
+  private final HistoryTransfer.BatchSink mSink = new HistoryTransfer.BatchSink() {
+    @Override
+    public void write(List<Equation> batch) {
+      mBatchSizes.add(batch.size());
+      mImported.addAll(batch);
+    }
+  };
+  private final HistoryTransfer.ProgressListener mNoProgress =
+      new HistoryTransfer.ProgressListener() {
+        @Override
+        public void onProgress(long count) {}
+      };
+
+  @Test
+  public void export_writesCsvThatImportsInBatches() throws Exception {
+    String csv = export(HistoryTransfer.Format.CSV);
+
+    assertEquals("p1,operator,p2,answer,correct\n3,*,4,12,true\n2,-,7,-5,true\n"
+        + "8,/,2,5,false\n1,+,1,2,true\n9,+,9,18,true\n", csv);
+    assertEquals(5, importSums(csv, 2));
+    assertEquals(Arrays.asList(2, 2, 1), mBatchSizes);
+    assertEquals(SUMS.toString(), mImported.toString());
+  }
+
+  @Test
+  public void export_writesJsonThatImportsInBatches() throws Exception {
+    String json = export(HistoryTransfer.Format.JSON);
+
+    assertEquals("[\n{\"p1\":3,\"operator\":\"*\",\"p2\":4,\"answer\":12,\"correct\":true},",
+        json.substring(0, json.indexOf("\n{\"p1\":2")));
+    assertTrue(json.endsWith("\"correct\":true}\n]\n"));
+    assertEquals(5, importSums(json, 5));
+    assertEquals(Arrays.asList(5), mBatchSizes);
+    assertEquals(SUMS.toString(), mImported.toString());
+  }
+
+  @Test
+  public void export_writesHistoriesLongerThanAPageOnce() throws Exception {
+    LocalHistoryStore store = new LocalHistoryStore(mFolder.newFolder());
+    for (int i = 0; i < 500; i++) {
+      store.appendAll(SUMS);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    HistoryTransfer.export(store, HistoryTransfer.Format.CSV, out, mNoProgress);
+
+    assertEquals(2500, importSums(out.toString("UTF-8"), 1000));
+    assertEquals(Arrays.asList(1000, 1000, 500), mBatchSizes);
+    assertEquals(store.load().toString(), mImported.toString());
+  }
+
+  @Test
+  public void importSums_regradesAndSkipsWhatIsNotAValidEquation() throws Exception {
+    String csv = "p1,operator,p2,answer,correct\r\n3,*,4,13,true\r\n\r\n10,+,1,11,true\r\n"
+        + "garbage\r\n7,/,0,0,false\r\n4,-,2,2,false";
+    assertEquals(2, importSums(csv, 10));
+    assertEquals("[3 * 4 = 13 (wrong), 4 - 2 = 2 (correct)]", mImported.toString());
+
+    mImported.clear();
+    String json = " [ { \"answer\" : 12, \"operator\":\"\\u002a\", \"note\":\"a \\\"b\\\"\",\n"
+        + "\"p2\":4, \"p1\":3 }, {\"p1\":3,\"operator\":\"*\",\"p2\":4,\"answer\":70000},\n"
+        + "{\"p1\":null,\"operator\":\"+\",\"p2\":1,\"answer\":1}, {} ]";
+    assertEquals(1, importSums(json, 10));
+    assertEquals("[3 * 4 = 12 (correct)]", mImported.toString());
+  }
+
+  @Test(expected = IOException.class)
+  public void importSums_failsOnMalformedJson() throws Exception {
+    importSums("[{\"p1\":3,\"operator\":\"*\",\"p2\":4,\"answer\":12}, [1]]", 10);
+  }
+
+  private String export(HistoryTransfer.Format format) throws IOException {
+    LocalHistoryStore store = new LocalHistoryStore(mFolder.newFolder());
+    store.appendAll(SUMS);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(SUMS.size(), HistoryTransfer.export(store, format, out, mNoProgress));
+    return out.toString("UTF-8");
+  }
+
+  private long importSums(String file, int batchSize) throws IOException {
+    return HistoryTransfer.importSums(
+        new ByteArrayInputStream(file.getBytes("UTF-8")), batchSize, mSink, mNoProgress);
+  }
+}
@@ -0,0 +1,59 @@
+package drive.play.android.samples.com.drivedeletesample;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * {@link SyncState} kept in memory.
+ */
+class MemorySyncState implements SyncState {
+  private volatile String mFileId;
+  private volatile String mSyncedRevision;
+  private volatile Set<String> mForgottenIds = Collections.emptySet();
+  private final String mDeviceId;
+
+  MemorySyncState() {
+    this(UUID.randomUUID().toString());
+  }
+
+  MemorySyncState(String deviceId) {
+    mDeviceId = deviceId;
+  }
+
+  @Override
+  public String getFileId() {
+    return mFileId;
+  }
+
+  @Override
+  public void setFileId(String fileId) {
+    mFileId = fileId;
+  }
+
+  @Override
+  public String getSyncedRevision() {
+    return mSyncedRevision;
+  }
+
+  @Override
+  public void setSyncedRevision(String revision) {
+    mSyncedRevision = revision;
+  }
+
+  @Override
+  public Set<String> getForgottenIds() {
+    return new HashSet<>(mForgottenIds);
+  }
+
+  @Override
+  public void setForgottenIds(Set<String> fileIds) {
+    mForgottenIds = new HashSet<>(fileIds);
+  }
+
+  @Override
+  public String getDeviceId() {
+    return mDeviceId;
+  }
+}
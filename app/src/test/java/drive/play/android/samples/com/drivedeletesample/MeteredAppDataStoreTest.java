@@ -0,0 +1,52 @@
+package drive.play.android.samples.com.drivedeletesample;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MeteredAppDataStoreTest {
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void recordsCallsErrorsAndBytes() throws Exception {
+    AppDataMetrics metrics = new AppDataMetrics();
+    AppDataStore store =
+        new MeteredAppDataStore(new FileAppDataStore(mFolder.newFolder()), metrics);
+
+    AppDataStore.Contents contents = store.createContents();
+    try (OutputStream out = contents.getOutputStream()) {
+      out.write(new byte[100]);
+    }
+    String fileId = store.createFile("Equation Segment", "application/octet-stream", contents);
+    contents = store.openFile(fileId, /* writable= */ false);
+    try (InputStream in = contents.getInputStream()) {
+      while (in.read(new byte[64]) >= 0) {
+      }
+    }
+    store.discardContents(contents);
+    store.delete(fileId);
+    try {
+      store.delete(fileId);
+      fail();
+    } catch (IOException expected) {
+    }
+
+    AppDataMetrics.Operation delete = metrics.operation("delete");
+    assertEquals(2, delete.getCount());
+    assertEquals(0.5, delete.getErrorRate(), 0);
+    assertEquals(0, delete.getInFlight());
+    assertTrue(delete.getPercentileMillis(100) <= delete.getMaxMillis());
+    assertEquals(1, metrics.operation("openFile").getCount());
+    assertEquals(100, metrics.getBytesWritten());
+    assertEquals(100, metrics.getBytesRead());
+  }
+}
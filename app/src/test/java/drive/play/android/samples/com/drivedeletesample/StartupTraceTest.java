@@ -0,0 +1,28 @@
+package drive.play.android.samples.com.drivedeletesample;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StartupTraceTest {
+  @Test
+  public void mark_recordsEachPhaseOnceInOrder() throws Exception {
+    StartupTrace trace = new StartupTrace(System.nanoTime());
+    assertNotNull(trace.mark("activity created"));
+    Thread.sleep(2);
+    assertNotNull(trace.mark("account available"));
+    assertNull(trace.mark("activity created"));
+
+    List<StartupTrace.Phase> phases = trace.getPhases();
+    assertEquals(2, phases.size());
+    assertEquals("activity created", phases.get(0).name);
+    assertEquals("account available", phases.get(1).name);
+    assertTrue(phases.get(1).elapsedNanos > phases.get(0).elapsedNanos);
+    assertTrue(trace.toString().contains("account available"));
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the commits {@code AppDataSync} makes to a device log in App Data, of
+ * {@link #count} entries each, into a local file channel like the one behind the file descriptor
+ * of {@code DriveContents}: appending a batch of submitted answers to the tail segment, and
+ * writing a new segment.
+ *
+ * <p>The {@code allocating} and {@code stream} benchmarks reproduce how earlier versions of the
+ * sample made them: appends through new entries and a new buffer per commit, and segments record
+ * by record through a {@link DataOutputStream} over a {@link BufferedOutputStream} over the
+ * channel. The {@code reused} and {@code buffer} benchmarks serialize into one buffer sized for a
+ * full segment and write it to the channel in a single call, as {@code AppDataSync} does now.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class CommitBenchmark {
+  private static final int SEGMENT_CAPACITY = 1024;
+
+  @Param({"20", "1024"})
+  public int count;
+
+  private int[] mRecords;
+  private long[] mEntries;
+  private File mFile;
+  private RandomAccessFile mRandomAccessFile;
+  private FileChannel mChannel;
+  private final ByteBuffer mBuffer =
+      ByteBuffer.allocate(EquationCodec.logSize(SEGMENT_CAPACITY));
+
+  @Setup
+  public void setUp() throws IOException {
+    SplitMixRandom random = new SplitMixRandom(42);
+    mRecords = new int[count];
+    mEntries = new long[count];
+    long seconds = System.currentTimeMillis() / 1000;
+    for (int i = 0; i < count; i++) {
+      int question = EquationEngine.nextQuestion(random);
+      mRecords[i] = new Equation(EquationEngine.p1Of(question),
+          EquationEngine.operatorOf(question), EquationEngine.p2Of(question),
+          EquationEngine.expected(question) + random.nextInt(2)).encode();
+      mEntries[i] = EquationCodec.logEntry(mRecords[i], seconds);
+    }
+    mFile = File.createTempFile("commit", ".log");
+    mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+    mChannel = mRandomAccessFile.getChannel();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    mRandomAccessFile.close();
+    mFile.delete();
+  }
+
+  @Benchmark
+  public FileChannel appendAllocating() throws IOException {
+    long seconds = System.currentTimeMillis() / 1000;
+    long[] entries = new long[count];
+    for (int i = 0; i < count; i++) {
+      entries[i] = EquationCodec.logEntry(mRecords[i], seconds);
+    }
+    ByteBuffer records = ByteBuffer.allocate(count * EquationCodec.LOG_RECORD_SIZE);
+    for (long entry : entries) {
+      records.putInt(EquationCodec.recordOf(entry));
+      records.putInt((int) EquationCodec.secondsOf(entry));
+    }
+    records.flip();
+    return write(records);
+  }
+
+  @Benchmark
+  public FileChannel appendReused() throws IOException {
+    long seconds = System.currentTimeMillis() / 1000;
+    mBuffer.clear();
+    for (int record : mRecords) {
+      EquationCodec.putLogEntry(mBuffer, EquationCodec.logEntry(record, seconds));
+    }
+    mBuffer.flip();
+    return write(mBuffer);
+  }
+
+  @Benchmark
+  public FileChannel segmentStream() throws IOException {
+    mChannel.position(0);
+    // Flushed rather than closed, which would close the channel.
+    DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(mChannel)));
+    byte[] header = EquationCodec.header();
+    header[5] = EquationCodec.LOG_RECORD_SIZE;
+    out.write(header);
+    for (long entry : mEntries) {
+      out.writeInt(EquationCodec.recordOf(entry));
+      out.writeInt((int) EquationCodec.secondsOf(entry));
+    }
+    out.flush();
+    return mChannel;
+  }
+
+  @Benchmark
+  public FileChannel segmentBuffer() throws IOException {
+    mBuffer.clear();
+    EquationCodec.putLog(mBuffer, mEntries, 0, count);
+    mBuffer.flip();
+    return write(mBuffer);
+  }
+
+  private FileChannel write(ByteBuffer bytes) throws IOException {
+    long position = 0;
+    while (bytes.hasRemaining()) {
+      position += mChannel.write(bytes, position);
+    }
+    return mChannel;
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks creating, formatting and grading single equations and batches of them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class EquationBenchmark {
+  private static final int BATCH_SIZE = 1024;
+
+  private Equation mEquation;
+  private int mRecord;
+  private final StringBuilder mText = new StringBuilder();
+
+  private final SplitMixRandom mRandom = new SplitMixRandom(42);
+  private final int[] mQuestions = new int[BATCH_SIZE];
+  private final int[] mAnswers = new int[BATCH_SIZE];
+  private final int[] mRecords = new int[BATCH_SIZE];
+
+  @Setup
+  public void setUp() {
+    mEquation = new Equation(7, "*", 8, 56);
+    mRecord = mEquation.encode();
+    EquationEngine.generate(mQuestions, 0, BATCH_SIZE, mRandom);
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      // Answer every other question correctly.
+      mAnswers[i] = EquationEngine.expected(mQuestions[i]) + (i & 1);
+    }
+  }
+
+  @Benchmark
+  public Equation newEquation() {
+    return new Equation();
+  }
+
+  @Benchmark
+  public String equationToString() {
+    return mEquation.toString();
+  }
+
+  @Benchmark
+  public int formatRecord() {
+    mText.setLength(0);
+    Equation.format(mRecord, mText);
+    return mText.length();
+  }
+
+  @Benchmark
+  public boolean isCorrect() {
+    return mEquation.isCorrect();
+  }
+
+  @Benchmark
+  public int encode() {
+    return mEquation.encode();
+  }
+
+  @Benchmark
+  public Equation decode() {
+    return Equation.decode(mRecord);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public int[] generateBatch() {
+    EquationEngine.generate(mQuestions, 0, BATCH_SIZE, mRandom);
+    return mQuestions;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public int gradeBatch() {
+    return EquationEngine.grade(mQuestions, mAnswers, 0, BATCH_SIZE, mRecords);
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks writing and reading the App Data file for histories of {@link #size} equations.
+ *
+ * <p>The {@code legacy} benchmarks reproduce how earlier versions of the sample stored the
+ * history: one {@link Equation#toString()} line per equation, written through an
+ * {@link OutputStreamWriter} and read back with a {@link Scanner}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+  @Param({"100", "10000"})
+  public int size;
+
+  private List<Equation> mSums;
+  private byte[] mBinary;
+  private byte[] mText;
+  private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+
+  @Setup
+  public void setUp() throws IOException {
+    SplitMixRandom random = new SplitMixRandom(42);
+    mSums = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      int question = EquationEngine.nextQuestion(random);
+      mSums.add(new Equation(EquationEngine.p1Of(question), EquationEngine.operatorOf(question),
+          EquationEngine.p2Of(question), EquationEngine.expected(question) + random.nextInt(2)));
+    }
+    mBinary = writeBinary().toByteArray();
+    mText = writeLegacyText().toByteArray();
+  }
+
+  @Benchmark
+  public ByteArrayOutputStream writeBinary() throws IOException {
+    mOut.reset();
+    EquationCodec.write(mOut, mSums);
+    return mOut;
+  }
+
+  @Benchmark
+  public List<Equation> readBinary() throws IOException {
+    return EquationCodec.read(new ByteArrayInputStream(mBinary));
+  }
+
+  @Benchmark
+  public ByteArrayOutputStream writeLegacyText() throws IOException {
+    mOut.reset();
+    try (Writer writer = new OutputStreamWriter(mOut)) {
+      for (int i = mSums.size() - 1; i >= 0; i--) {
+        writer.write(mSums.get(i) + "\n");
+      }
+    }
+    return mOut;
+  }
+
+  @Benchmark
+  public List<String> readLegacyTextWithScanner() {
+    List<String> lines = new ArrayList<>();
+    Scanner scanner = new Scanner(new ByteArrayInputStream(mText));
+    while (scanner.hasNextLine()) {
+      lines.add(scanner.nextLine());
+    }
+    return lines;
+  }
+
+  @Benchmark
+  public List<Equation> migrateLegacyText() throws IOException {
+    return EquationCodec.read(new ByteArrayInputStream(mText));
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Collects latencies and reports their percentiles. Safe to use from several threads.
+ */
+final class LatencyRecorder {
+  private final String mName;
+  private long[] mNanos = new long[1024];
+  private int mCount;
+
+  LatencyRecorder(String name) {
+    mName = name;
+  }
+
+  synchronized void record(long nanos) {
+    if (mCount == mNanos.length) {
+      mNanos = Arrays.copyOf(mNanos, mCount * 2);
+    }
+    mNanos[mCount++] = nanos;
+  }
+
+  synchronized int count() {
+    return mCount;
+  }
+
+  /**
+   * Returns the {@code percentile} (0 to 100) of the recorded latencies in nanoseconds, using the
+   * nearest-rank method, or 0 if none have been recorded.
+   */
+  synchronized long percentile(double percentile) {
+    if (mCount == 0) {
+      return 0;
+    }
+    long[] sorted = Arrays.copyOf(mNanos, mCount);
+    Arrays.sort(sorted);
+    int rank = (int) Math.ceil(percentile / 100 * mCount);
+    return sorted[Math.max(0, Math.min(mCount, rank) - 1)];
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US, "%-28s n=%-7d p50=%9.2f ms  p99=%9.2f ms  max=%9.2f ms",
+        mName, count(), millis(percentile(50)), millis(percentile(99)), millis(percentile(100)));
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1e6;
+  }
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package drive.play.android.samples.com.drivedeletesample;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives the App Data sync path of the app end to end on a plain JVM: answers are stored on the
+ * "device" and submitted through a {@link SubmitBatcher} to an {@link AppDataSync} backed by a
+ * {@link FileAppDataStore}, with periodic loads and resets, as the activity does.
+ *
+ * <p>Reports the latency from submitting an answer until it is durable in App Data, the latency
+ * of the individual batch writes, loads and deletes, and the overall throughput. Finally checks
+ * that App Data holds the same history as the device.
+ *
+ * <p>Options, with their defaults, as printed by {@code --help}:
+ * <pre>
+ *   --submits 5000        answers to submit
+ *   --reset-every 1000    submits between resets, 0 for none
+ *   --load-every 250      submits between loads from App Data, 0 for none
+ *   --think-ms 1          pause between submits
+ *   --latency-ms 20       latency of every App Data call
+ *   --jitter-ms 10        maximum random latency added to every call
+ *   --failure-rate 0.01   probability of an App Data call failing
+ *   --batch-window-ms 50  window of the submit batcher
+ *   --batch-size 20       maximum batch size of the submit batcher
+ *   --segment-capacity N  maximum sums per App Data segment, AppDataSync's default by default
+ *   --seed 1              seed for answers, latencies and failures
+ *   --dir DIR             directory for App Data and the device, a new temporary one by default
+ * </pre>
+ */
+public final class LoadTest {
+  /** Rounds of flushing after the last submit before unsynced answers are given up on. */
+  private static final int MAX_DRAIN_ROUNDS = 1000;
+
+  /** Attempts to delete App Data after a reset before it is left to the next reset. */
+  private static final int MAX_DELETE_ATTEMPTS = 100;
+
+  private static final String USAGE = "Usage: LoadTest [options]\n"
+      + "  --submits 5000        answers to submit\n"
+      + "  --reset-every 1000    submits between resets, 0 for none\n"
+      + "  --load-every 250      submits between loads from App Data, 0 for none\n"
+      + "  --think-ms 1          pause between submits\n"
+      + "  --latency-ms 20       latency of every App Data call\n"
+      + "  --jitter-ms 10        maximum random latency added to every call\n"
+      + "  --failure-rate 0.01   probability of an App Data call failing\n"
+      + "  --batch-window-ms 50  window of the submit batcher\n"
+      + "  --batch-size 20       maximum batch size of the submit batcher\n"
+      + "  --segment-capacity N  maximum sums per App Data segment, "
+      + AppDataSync.SEGMENT_CAPACITY + " by default\n"
+      + "  --seed 1              seed for answers, latencies and failures\n"
+      + "  --dir DIR             directory for App Data and the device, a new temporary one by "
+      + "default\n"
+      + "  --help, -h            print this help\n";
+
+  private int mSubmits = 5000;
+  private int mResetEvery = 1000;
+  private int mLoadEvery = 250;
+  private long mThinkMillis = 1;
+  private long mLatencyMillis = 20;
+  private long mJitterMillis = 10;
+  private double mFailureRate = 0.01;
+  private long mBatchWindowMillis = 50;
+  private int mBatchSize = 20;
+  private int mSegmentCapacity = AppDataSync.SEGMENT_CAPACITY;
+  private long mSeed = 1;
+  private File mDirectory;
+
+  private final LatencyRecorder mSubmitLatency = new LatencyRecorder("submit until durable");
+  private final LatencyRecorder mWriteLatency = new LatencyRecorder("batch write");
+  private final LatencyRecorder mLoadLatency = new LatencyRecorder("load");
+  private final LatencyRecorder mDeleteLatency = new LatencyRecorder("reset delete");
+  private final AtomicInteger mFailedWrites = new AtomicInteger();
+  private final AtomicInteger mFailedLoads = new AtomicInteger();
+  private final AtomicInteger mFailedDeletes = new AtomicInteger();
+
+  /** Submission times of answers not yet durable, in nanoseconds. */
+  private final Map<Equation, Long> mPending =
+      Collections.synchronizedMap(new IdentityHashMap<Equation, Long>());
+  private final AtomicInteger mDurable = new AtomicInteger();
+  private int mDiscarded;
+
+  private FileAppDataStore mStore;
+  private final AppDataMetrics mMetrics = new AppDataMetrics();
+  private LocalHistoryStore mLocalStore;
+  private SyncState mSyncState;
+  private AppDataSync mSync;
+  private SubmitBatcher mBatcher;
+
+  public static void main(String[] args) throws Exception {
+    LoadTest loadTest = new LoadTest();
+    try {
+      if (!loadTest.parse(args)) {
+        System.out.print(USAGE);
+        return;
+      }
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.print(USAGE);
+      System.exit(2);
+    }
+    System.exit(loadTest.run() ? 0 : 1);
+  }
+
+  /**
+   * Sets the options given in {@code args}.
+   *
+   * @return false if help was requested, in which case nothing is run.
+   * @throws IllegalArgumentException if an option is unknown or has a missing or invalid value.
+   */
+  private boolean parse(String[] args) throws IOException {
+    for (int i = 0; i < args.length; i += 2) {
+      if ("--help".equals(args[i]) || "-h".equals(args[i])) {
+        return false;
+      }
+      if (i + 1 == args.length) {
+        throw new IllegalArgumentException("Missing value for " + args[i]);
+      }
+      try {
+        parseOption(args[i], args[i + 1]);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid value for " + args[i] + ": " + args[i + 1]);
+      }
+    }
+    if (mDirectory == null) {
+      mDirectory = Files.createTempDirectory("loadtest").toFile();
+    }
+    return true;
+  }
+
+  private void parseOption(String option, String value) {
+    switch (option) {
+      case "--submits":
+        mSubmits = Integer.parseInt(value);
+        break;
+      case "--reset-every":
+        mResetEvery = Integer.parseInt(value);
+        break;
+      case "--load-every":
+        mLoadEvery = Integer.parseInt(value);
+        break;
+      case "--think-ms":
+        mThinkMillis = Long.parseLong(value);
+        break;
+      case "--latency-ms":
+        mLatencyMillis = Long.parseLong(value);
+        break;
+      case "--jitter-ms":
+        mJitterMillis = Long.parseLong(value);
+        break;
+      case "--failure-rate":
+        mFailureRate = Double.parseDouble(value);
+        break;
+      case "--batch-window-ms":
+        mBatchWindowMillis = Long.parseLong(value);
+        break;
+      case "--batch-size":
+        mBatchSize = Integer.parseInt(value);
+        break;
+      case "--segment-capacity":
+        mSegmentCapacity = Integer.parseInt(value);
+        break;
+      case "--seed":
+        mSeed = Long.parseLong(value);
+        break;
+      case "--dir":
+        mDirectory = new File(value);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown option " + option);
+    }
+  }
+
+  /**
+   * Runs the load test and prints its report.
+   *
+   * @return whether App Data and the device ended up with the same history.
+   */
+  private boolean run() throws Exception {
+    mStore = new FileAppDataStore(new File(mDirectory, "appdata"), mLatencyMillis, mJitterMillis,
+        mFailureRate, mSeed);
+    mLocalStore = new LocalHistoryStore(newDirectory("device"));
+    mSyncState = new MemorySyncState();
+    mSync = new AppDataSync(
+        new MeteredAppDataStore(mStore, mMetrics), mLocalStore, mSyncState, mSegmentCapacity);
+    mBatcher = new SubmitBatcher(new SubmitBatcher.Sink() {
+      @Override
+      public void write(List<Equation> batch, int generation) throws Exception {
+        writeBatch(batch, generation);
+      }
+    }, mBatchWindowMillis, mBatchSize);
+
+    SplitMixRandom random = new SplitMixRandom(mSeed);
+    long start = System.nanoTime();
+    for (int i = 1; i <= mSubmits; i++) {
+      submit(random);
+      if (mLoadEvery > 0 && i % mLoadEvery == 0) {
+        load();
+      }
+      if (mResetEvery > 0 && i % mResetEvery == 0 && i < mSubmits) {
+        reset();
+      }
+      if (mThinkMillis > 0) {
+        Thread.sleep(mThinkMillis);
+      }
+    }
+    drain();
+    long elapsed = System.nanoTime() - start;
+    mBatcher.shutdown();
+
+    boolean consistent = report(elapsed);
+    System.out.println("Data directory: " + mDirectory);
+    return consistent;
+  }
+
+  private void submit(SplitMixRandom random) throws IOException {
+    int question = EquationEngine.nextQuestion(random);
+    // Answer about one in four questions wrongly.
+    int answer = EquationEngine.expected(question) + (random.nextInt(4) == 0 ? 1 : 0);
+    Equation sum = new Equation(EquationEngine.p1Of(question), EquationEngine.operatorOf(question),
+        EquationEngine.p2Of(question), answer);
+    mLocalStore.append(sum);
+    mPending.put(sum, System.nanoTime());
+    mBatcher.submit(sum);
+  }
+
+  private void writeBatch(List<Equation> batch, int generation) throws IOException {
+    // As in MainActivity: a current batch was taken from the history at this version.
+    int version = mLocalStore.getVersion();
+    if (!mBatcher.isCurrent(generation)) {
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      if (!mSync.writeSums(batch, version)) {
+        return;
+      }
+    } catch (IOException e) {
+      mFailedWrites.incrementAndGet();
+      throw e;
+    }
+    long now = System.nanoTime();
+    mWriteLatency.record(now - start);
+    mLocalStore.addSynced(batch.size(), version);
+    for (Equation sum : batch) {
+      Long submitted = mPending.remove(sum);
+      if (submitted != null) {
+        mSubmitLatency.record(now - submitted);
+        mDurable.incrementAndGet();
+      }
+    }
+  }
+
+  private void load() {
+    mBatcher.execute(new Runnable() {
+      @Override
+      public void run() {
+        long start = System.nanoTime();
+        try {
+          mSync.loadPastSums();
+          mLoadLatency.record(System.nanoTime() - start);
+        } catch (IOException e) {
+          mFailedLoads.incrementAndGet();
+        }
+      }
+    });
+  }
+
+  /**
+   * Resets the history like the reset button: pending answers are dropped, the device copy is
+   * cleared and App Data is deleted on the batcher thread, retrying failed deletes without delay
+   * until nothing is pending deletion.
+   */
+  private void reset() {
+    mBatcher.discardPending();
+    synchronized (mPending) {
+      mDiscarded += mPending.size();
+      mPending.clear();
+    }
+    mLocalStore.clear();
+    mSync.reset();
+    mBatcher.execute(new Runnable() {
+      @Override
+      public void run() {
+        for (int attempt = 0; attempt < MAX_DELETE_ATTEMPTS && mSync.isDeletePending();
+            attempt++) {
+          long start = System.nanoTime();
+          try {
+            AppDataCleaner.Report report = mSync.deleteSums(null);
+            if (report.failure != null) {
+              mFailedDeletes.incrementAndGet();
+            } else {
+              mDeleteLatency.record(System.nanoTime() - start);
+            }
+          } catch (IOException e) {
+            mFailedDeletes.incrementAndGet();
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Flushes the batcher until every submitted answer is durable. Failed batches are only retried
+   * with the next write, so this keeps flushing.
+   */
+  private void drain() throws InterruptedException {
+    for (int round = 0; round < MAX_DRAIN_ROUNDS && !mPending.isEmpty(); round++) {
+      mBatcher.flush();
+      final CountDownLatch written = new CountDownLatch(1);
+      mBatcher.execute(new Runnable() {
+        @Override
+        public void run() {
+          written.countDown();
+        }
+      });
+      written.await();
+    }
+  }
+
+  /**
+   * Prints the report.
+   *
+   * @return whether App Data and the device hold the same history.
+   */
+  private boolean report(long elapsedNanos) throws IOException {
+    double seconds = elapsedNanos / 1e9;
+    System.out.printf(Locale.US, "Submitted %d answers in %.2f s: %d durable, %d discarded by "
+            + "resets, %d never synced%n",
+        mSubmits, seconds, mDurable.get(), mDiscarded, mPending.size());
+    System.out.printf(Locale.US, "Throughput: %.1f durable answers/s%n", mDurable.get() / seconds);
+    System.out.println(mSubmitLatency);
+    System.out.println(mWriteLatency);
+    System.out.println(mLoadLatency);
+    System.out.println(mDeleteLatency);
+    System.out.print(mMetrics);
+    System.out.printf(Locale.US, "App Data calls: %d, injected failures: %d (failed writes %d, "
+            + "loads %d, deletes %d)%n",
+        mStore.getCallCount(), mStore.getFailureCount(), mFailedWrites.get(), mFailedLoads.get(),
+        mFailedDeletes.get());
+
+    // Read App Data as a new device would, newest segments first and then older ones as if the
+    // list were scrolled to its end, retrying injected failures.
+    LocalHistoryStore checkStore = new LocalHistoryStore(newDirectory("check"));
+    AppDataSync checkSync =
+        new AppDataSync(mStore, checkStore, new MemorySyncState(), mSegmentCapacity);
+    boolean loaded = false;
+    for (int attempt = 0; ; attempt++) {
+      try {
+        if (!loaded) {
+          checkSync.loadPastSums();
+          loaded = true;
+        }
+        while (checkSync.loadOlderSums()) {
+        }
+        break;
+      } catch (IOException e) {
+        if (attempt == 100) {
+          throw e;
+        }
+      }
+    }
+    List<Equation> remote = checkStore.load();
+    List<Equation> device = mLocalStore.load();
+    boolean consistent = remote.toString().equals(device.toString());
+    System.out.printf("App Data holds %d answers, the device %d: %s%n", remote.size(),
+        device.size(), consistent ? "consistent" : "INCONSISTENT");
+    return consistent;
+  }
+
+  private File newDirectory(String name) throws IOException {
+    File directory = new File(mDirectory, name);
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create " + directory);
+    }
+    return directory;
+  }
+}